@@ -0,0 +1,366 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.OptionalInt;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+
+/**
+ * Klassen återskapar krypteringsnyckeln ur en känd klartext och dess chiffertext. Eftersom C = K * P för
+ * varje block räcker det med n block vars kolumner bildar en inverterbar matris P_S modulo radix; då är
+ * K = C_S * P_S^-1. Först provas grupper av n block i följd och sedan slumpmässiga delmängder, parallellt
+ * över kandidaterna. Nyckeln kontrolleras till sist mot alla block i filerna.
+ *
+ * Klartexten fylls ut på samma sätt som HillCipher gör, så även det sista blocket kan användas.
+ * Filerna mappas i fönster som alltid innehåller hela block; kandidaterna hämtas ur det första fönstret.
+ */
+public class HillAttack {
+    public static final int DEFAULT_ATTEMPTS = 1 << 20;
+    private static final int WINDOW_SIZE = 1 << 30;
+    private static final int CHUNK_BLOCKS = 1 << 14;
+
+    private final int RADIX;
+    private final int DIMENSION;
+    private final ForkJoinPool pool;
+    private final int attempts;
+    private int[] blocksUsed;
+    private long blocksChecked;
+    private long blocksMatched;
+
+
+    /**
+     *
+     * @param radix modulovärdet
+     * @param dimension blockstorleken
+     * @param threads antal trådar
+     * @param attempts högsta antal slumpmässiga delmängder som provas
+     */
+    public HillAttack(int radix, int dimension, int threads, int attempts) {
+        this.RADIX = radix;
+        this.DIMENSION = dimension;
+        this.pool = new ForkJoinPool(threads);
+        this.attempts = attempts;
+    }
+
+
+    /**
+     * @param plainFile den kända klartexten
+     * @param cipherFile chiffertexten som HillCipher skrev
+     * @return nyckeln, eller null om ingen inverterbar delmängd av blocken hittades
+     * @throws IllegalArgumentException om filernas längder inte hör ihop eller om klartexten innehåller en
+     *         symbol som inte är mindre än radix
+     */
+    public int[][] recover(String plainFile, String cipherFile) throws IOException, InterruptedException {
+        try (FileChannel plain = FileChannel.open(Paths.get(plainFile), StandardOpenOption.READ);
+             FileChannel cipher = FileChannel.open(Paths.get(cipherFile), StandardOpenOption.READ)) {
+            final long PLAIN_SIZE = plain.size();
+            final long CIPHER_SIZE = PLAIN_SIZE + HillPadding.paddingFor(PLAIN_SIZE, DIMENSION);
+            if (cipher.size() != CIPHER_SIZE) {
+                throw new IllegalArgumentException("Chiffertexten ska vara " + CIPHER_SIZE + " byte för en klartext på "
+                        + PLAIN_SIZE + " byte men är " + cipher.size() + " byte");
+            }
+            final long FULL_BLOCKS_SIZE = PLAIN_SIZE - PLAIN_SIZE % DIMENSION;
+            final byte[] lastPlain = new byte[DIMENSION];
+            final int REST = (int) (PLAIN_SIZE - FULL_BLOCKS_SIZE);
+            readFully(plain, ByteBuffer.wrap(lastPlain, 0, REST), FULL_BLOCKS_SIZE);
+            HillPadding.pad(lastPlain, REST, DIMENSION);
+            checkSymbols(ByteBuffer.wrap(lastPlain), DIMENSION);
+            final byte[] lastCipher = new byte[DIMENSION];
+            readFully(cipher, ByteBuffer.wrap(lastCipher), FULL_BLOCKS_SIZE);
+
+            final long WINDOW = WINDOW_SIZE - WINDOW_SIZE % DIMENSION;
+            final int SEARCH_SIZE = (int) Math.min(FULL_BLOCKS_SIZE, WINDOW);
+            final MappedByteBuffer SEARCH_PLAIN = plain.map(FileChannel.MapMode.READ_ONLY, 0, SEARCH_SIZE);
+            checkSymbols(SEARCH_PLAIN, SEARCH_SIZE);
+            final Blocks blocks = new Blocks(SEARCH_PLAIN,
+                    cipher.map(FileChannel.MapMode.READ_ONLY, 0, SEARCH_SIZE), lastPlain, lastCipher);
+            final int[] subset = search(blocks);
+            if (subset == null) {
+                return null;
+            }
+            this.blocksUsed = subset;
+            final int[][] key = HillMatrix.times(blocks.matrix(subset, true),
+                    HillMatrix.inverse(blocks.matrix(subset, false), RADIX), RADIX);
+
+            final HillKernel kernel = HillKernel.valueOf(key, RADIX);
+            long matched = 0;
+            for (long position = 0; position < FULL_BLOCKS_SIZE; position += WINDOW) {
+                final int SIZE = (int) Math.min(WINDOW, FULL_BLOCKS_SIZE - position);
+                final MappedByteBuffer WINDOW_PLAIN = position == 0 ? SEARCH_PLAIN
+                        : plain.map(FileChannel.MapMode.READ_ONLY, position, SIZE);
+                if (position > 0) {
+                    checkSymbols(WINDOW_PLAIN, SIZE);
+                }
+                matched += verify(kernel, WINDOW_PLAIN,
+                        cipher.map(FileChannel.MapMode.READ_ONLY, position, SIZE), SIZE / DIMENSION);
+            }
+            final byte[] last = lastPlain.clone();
+            kernel.transform(last, 0, last, 0, 1);
+            this.blocksChecked = CIPHER_SIZE / DIMENSION;
+            this.blocksMatched = matched + (Arrays.equals(last, lastCipher) ? 1 : 0);
+            return key;
+        }
+    }
+
+
+    /**
+     * @return index för n block vars klartexter bildar en inverterbar matris, eller null
+     */
+    private int[] search(Blocks blocks) throws InterruptedException {
+        final int COUNT = blocks.count();
+        if (COUNT < DIMENSION) {
+            return null;
+        }
+        try {
+            OptionalInt group = pool.submit(() -> IntStream.range(0, COUNT / DIMENSION).parallel()
+                    .filter(g -> HillMatrix.isInvertible(blocks.matrix(consecutive(g * DIMENSION), false), RADIX))
+                    .findFirst()).get();
+            if (group.isPresent()) {
+                return consecutive(group.getAsInt() * DIMENSION);
+            }
+            OptionalInt attempt = pool.submit(() -> IntStream.range(0, attempts).parallel()
+                    .filter(a -> HillMatrix.isInvertible(blocks.matrix(random(a, COUNT), false), RADIX))
+                    .findFirst()).get();
+            return attempt.isPresent() ? random(attempt.getAsInt(), COUNT) : null;
+        } catch (ExecutionException e) {
+            throw unchecked(e);
+        }
+    }
+
+
+    private int[] consecutive(int first) {
+        int[] subset = new int[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            subset[i] = first + i;
+        }
+        return subset;
+    }
+
+
+    /**
+     * @return n olika block valda med ett slumptal som bara beror på attempt, så resultatet går att upprepa
+     */
+    private int[] random(int attempt, int count) {
+        SplittableRandom random = new SplittableRandom(attempt);
+        int[] subset = new int[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            boolean unique;
+            do {
+                subset[i] = random.nextInt(count);
+                unique = true;
+                for (int j = 0; j < i; j++) {
+                    unique &= subset[j] != subset[i];
+                }
+            } while (!unique);
+        }
+        return subset;
+    }
+
+
+    /**
+     * @return antal block där kärnan ger chiffertexten
+     */
+    private long verify(HillKernel kernel, MappedByteBuffer plain, MappedByteBuffer cipher, int blocks)
+            throws InterruptedException {
+        try {
+            return pool.submit(() -> IntStream.range(0, (blocks + CHUNK_BLOCKS - 1) / CHUNK_BLOCKS).parallel()
+                    .mapToLong(chunk -> {
+                        final int FIRST = chunk * CHUNK_BLOCKS;
+                        final int COUNT = Math.min(CHUNK_BLOCKS, blocks - FIRST);
+                        final byte[] result = new byte[COUNT * DIMENSION];
+                        kernel.transform(plain, FIRST * DIMENSION, ByteBuffer.wrap(result), 0, COUNT);
+                        long matched = 0;
+                        for (int b = 0, index = FIRST * DIMENSION; b < COUNT; b++) {
+                            boolean equal = true;
+                            for (int i = 0; i < DIMENSION; i++, index++) {
+                                equal &= result[b * DIMENSION + i] == cipher.get(index);
+                            }
+                            matched += equal ? 1 : 0;
+                        }
+                        return matched;
+                    }).sum()).get();
+        } catch (ExecutionException e) {
+            throw unchecked(e);
+        }
+    }
+
+
+    /**
+     * @return orsaken till att en uppgift misslyckades; ett Error kastas som det är
+     */
+    static RuntimeException unchecked(ExecutionException e) {
+        if (e.getCause() instanceof Error) {
+            throw (Error) e.getCause();
+        }
+        if (e.getCause() instanceof RuntimeException) {
+            return (RuntimeException) e.getCause();
+        }
+        return new IllegalStateException(e.getCause());
+    }
+
+
+    /**
+     * @throws IllegalArgumentException om någon av de första size symbolerna inte är mindre än radix
+     */
+    private void checkSymbols(ByteBuffer plain, int size) {
+        for (int i = 0; i < size; i++) {
+            if (RADIX <= (plain.get(i) & 0xFF)) {
+                throw new IllegalArgumentException("Klartexten innehåller symbolen " + (plain.get(i) & 0xFF)
+                        + " som inte är mindre än radix " + RADIX);
+            }
+        }
+    }
+
+
+    /**
+     * Läser tills target är full med början på position i filen.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer target, long position) throws IOException {
+        final long START = position - target.position();
+        while (target.hasRemaining()) {
+            if (channel.read(target, START + target.position()) < 0) {
+                throw new EOFException("Filen tog slut vid position " + (START + target.position()));
+            }
+        }
+    }
+
+
+    /**
+     * @return blocken som nyckeln räknades fram ur
+     */
+    public int[] getBlocksUsed() {
+        return blocksUsed;
+    }
+
+    /**
+     * @return antal block som nyckeln kontrollerades mot
+     */
+    public long getBlocksChecked() {
+        return blocksChecked;
+    }
+
+    /**
+     * @return antal block där nyckeln gav chiffertexten
+     */
+    public long getBlocksMatched() {
+        return blocksMatched;
+    }
+
+
+    /**
+     * Blocken i det första fönstret följda av det utfyllda sista blocket.
+     */
+    private class Blocks {
+        private final MappedByteBuffer plain;
+        private final MappedByteBuffer cipher;
+        private final byte[] lastPlain;
+        private final byte[] lastCipher;
+        private final int full;
+
+        Blocks(MappedByteBuffer plain, MappedByteBuffer cipher, byte[] lastPlain, byte[] lastCipher) {
+            this.plain = plain;
+            this.cipher = cipher;
+            this.lastPlain = lastPlain;
+            this.lastCipher = lastCipher;
+            this.full = plain.capacity() / DIMENSION;
+        }
+
+        int count() {
+            return full + 1;
+        }
+
+        /**
+         * @return matrisen vars kolumner är blocken i subset
+         */
+        int[][] matrix(int[] subset, boolean fromCipher) {
+            int[][] matrix = new int[DIMENSION][DIMENSION];
+            for (int c = 0; c < DIMENSION; c++) {
+                for (int r = 0; r < DIMENSION; r++) {
+                    if (subset[c] < full) {
+                        matrix[r][c] = (fromCipher ? cipher : plain).get(subset[c] * DIMENSION + r) & 0xFF;
+                    } else {
+                        matrix[r][c] = (fromCipher ? lastCipher : lastPlain)[r] & 0xFF;
+                    }
+                }
+            }
+            return matrix;
+        }
+    }
+
+
+    public static void main(String[] args) {
+        System.out.println("HILLATTACK");
+        HillOptions options = new HillOptions(args);
+        args = options.getArguments();
+        if (args.length != 5) {
+            System.out.println("Fel antal argument.");
+            System.out.println("mata in: <radix> <blocksize> <plainfile> <cipherfile> <keyfile>");
+            System.out.println("flaggor: --threads=<n> --attempts=<n> --inverse=<invkeyfile>");
+            System.out.println("Försök igen");
+        } else {
+            try {
+                final int RADIX = Integer.parseInt(args[0]);
+                final int BLOCK_SIZE = Integer.parseInt(args[1]);
+                if (RADIX < 2 || RADIX > 256) {
+                    System.out.println("Argumentet <radix> måste uppfylla: 2 <= radix <= 256");
+                } else if (BLOCK_SIZE < 2 || BLOCK_SIZE > 8) {
+                    System.out.println("Argumentet <blocksize> måste uppfylla: 2 <= blocksize <= 8");
+                } else {
+                    attack(RADIX, BLOCK_SIZE, args[2], args[3], args[4], options);
+                }
+            } catch (NumberFormatException e) {
+                System.out.println("<radix> och <blocksize> måste vara heltal");
+            }
+        }
+        System.out.println("Programmet avslutas");
+    }
+
+
+    private static void attack(int radix, int blockSize, String plainFile, String cipherFile, String keyFile,
+                               HillOptions options) {
+        HillAttack attack = new HillAttack(radix, blockSize,
+                options.getInt("threads", Runtime.getRuntime().availableProcessors()),
+                options.getInt("attempts", DEFAULT_ATTEMPTS));
+        try {
+            final long START = System.nanoTime();
+            int[][] key = attack.recover(plainFile, cipherFile);
+            if (key == null) {
+                System.out.println("Inga " + blockSize + " block bildar en inverterbar matris modulo " + radix + ".");
+                System.out.println("Klartexten är för kort eller varierar för lite.");
+                return;
+            }
+            System.out.println("Nyckeln räknades fram ur blocken " + Arrays.toString(attack.getBlocksUsed())
+                    + " på " + (System.nanoTime() - START) / 1000000 + " ms");
+            System.out.println(attack.getBlocksMatched() + " av " + attack.getBlocksChecked() + " block stämmer");
+            if (attack.getBlocksMatched() != attack.getBlocksChecked()) {
+                System.out.println("OBS! Nyckeln förklarar inte alla block. Filerna hör kanske inte ihop.");
+            }
+            HillKeys.writeKeyToFile(key, keyFile);
+            if (options.has("inverse")) {
+                if (HillMatrix.isInvertible(key, radix)) {
+                    HillKeys.writeKeyToFile(HillMatrix.inverse(key, radix), options.get("inverse", ""));
+                } else {
+                    System.out.println("Nyckeln är inte inverterbar modulo " + radix + ", ingen invers skrevs.");
+                }
+            }
+            System.out.println("Nyckeln skrevs till " + keyFile);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (NoSuchFileException e) {
+            System.out.println("Filen " + e.getFile() + " finns inte.");
+        } catch (IOException e) {
+            System.out.println("Något gick fel när filerna lästes: " + e.getMessage());
+        } catch (InterruptedException e) {
+            System.out.println("Sökningen avbröts.");
+        }
+    }
+}
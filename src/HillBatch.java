@@ -0,0 +1,318 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+
+
+/**
+ * Klassen krypterar och dekrypterar många filer i en och samma JVM. Jobben läses från en manifestfil med
+ * en rad per jobb: operation (encrypt eller decrypt), radix, blockstorlek, nyckelfil, indatafil och
+ * utdatafil. Tomma rader och rader som börjar med # hoppas över. Jobben körs på en pool av trådar och
+ * nycklarna delas via HillKeyCache, så varje nyckelfil läses en gång. Ett jobb som misslyckas påverkar
+ * inte de andra; dess utdatafil tas bort och felet står i sammanställningen.
+ *
+ * Med --executor=virtual körs varje jobb på en egen virtuell tråd medan transformen körs på en pool med
+ * --cpus trådar, och högst --open-files filer är öppna samtidigt. Med --threads delas ett jobbs block
+ * upp över samma pool, så --cpus begränsar fortfarande antalet beräkningstrådar. Virtuella trådar finns
+ * från Java 21; på äldre JVM:er körs jobben i stället på --open-files / 2 vanliga trådar.
+ */
+public class HillBatch {
+    public static final String ENCRYPT = "encrypt";
+    public static final String DECRYPT = "decrypt";
+    public static final String POOL = "pool";
+    public static final String VIRTUAL = "virtual";
+    public static final int DEFAULT_OPEN_FILES = 256;
+
+    private final HillOptions options;
+    private final int chunkSize;
+    private final String executor;
+    private ForkJoinPool cpuPool;
+    private Semaphore openFiles;
+
+
+    /**
+     *
+     * @param options --chunk, --jobs, --executor, --cpus, --open-files samt flaggorna för kärnan
+     */
+    public HillBatch(HillOptions options) {
+        this.options = options;
+        this.chunkSize = options.getInt("chunk", HillStream.DEFAULT_CHUNK_SIZE);
+        this.executor = options.get("executor", POOL);
+        if (!executor.equals(POOL) && !executor.equals(VIRTUAL)) {
+            throw new IllegalArgumentException("Okänd exekvering: " + executor);
+        }
+    }
+
+
+    /**
+     * Ett jobb i manifestet och, när det körts, dess resultat.
+     */
+    public static class Job {
+        final int line;
+        final String operation;
+        final int radix;
+        final int blockSize;
+        final String keyFile;
+        final String input;
+        final String output;
+        String error;
+        long bytesRead;
+        long bytesWritten;
+        long nanos;
+
+        Job(int line, String operation, int radix, int blockSize, String keyFile, String input, String output) {
+            this.line = line;
+            this.operation = operation;
+            this.radix = radix;
+            this.blockSize = blockSize;
+            this.keyFile = keyFile;
+            this.input = input;
+            this.output = output;
+        }
+
+        Job(int line, String error) {
+            this(line, "-", 0, 0, "-", "-", "-");
+            this.error = error;
+        }
+
+        public boolean isOk() {
+            return error == null;
+        }
+    }
+
+
+    /**
+     * @param manifest manifestfilen
+     * @return ett jobb per rad, rader som inte kan tolkas blir jobb som redan misslyckats
+     */
+    public static List<Job> readManifest(String manifest) throws IOException {
+        List<Job> jobs = new ArrayList<>();
+        int line = 0;
+        for (String text : Files.readAllLines(Paths.get(manifest), StandardCharsets.UTF_8)) {
+            line++;
+            text = text.trim();
+            if (text.isEmpty() || text.startsWith("#")) {
+                continue;
+            }
+            String[] fields = text.split("\\s+");
+            if (fields.length != 6) {
+                jobs.add(new Job(line, "Raden måste ha 6 fält: <operation> <radix> <blocksize> <keyfile> <infile> <outfile>"));
+                continue;
+            }
+            final String OPERATION = fields[0].toLowerCase(Locale.ROOT);
+            if (!OPERATION.equals(ENCRYPT) && !OPERATION.equals(DECRYPT)) {
+                jobs.add(new Job(line, "Okänd operation: " + fields[0]));
+                continue;
+            }
+            try {
+                final int RADIX = Integer.parseInt(fields[1]);
+                final int BLOCK_SIZE = Integer.parseInt(fields[2]);
+                if (RADIX < 2 || RADIX > 256) {
+                    jobs.add(new Job(line, "<radix> måste uppfylla: 2 <= radix <= 256"));
+                } else if (BLOCK_SIZE < 2 || BLOCK_SIZE > 8) {
+                    jobs.add(new Job(line, "<blocksize> måste uppfylla: 2 <= blocksize <= 8"));
+                } else {
+                    jobs.add(new Job(line, OPERATION, RADIX, BLOCK_SIZE, fields[3], fields[4], fields[5]));
+                }
+            } catch (NumberFormatException e) {
+                jobs.add(new Job(line, "<radix> och <blocksize> måste vara heltal"));
+            }
+        }
+        return jobs;
+    }
+
+
+    /**
+     * Kör alla jobb som gick att tolka och väntar tills de är klara.
+     */
+    public void run(List<Job> jobs) throws InterruptedException {
+        final int CPUS = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool;
+        if (executor.equals(VIRTUAL)) {
+            final int OPEN_FILES = Math.max(2, options.getInt("open-files", DEFAULT_OPEN_FILES));
+            this.openFiles = new Semaphore(OPEN_FILES);
+            this.cpuPool = new ForkJoinPool(options.getInt("cpus", CPUS));
+            pool = newVirtualThreadPerTaskExecutor();
+            if (pool == null) {
+                System.out.println("Virtuella trådar saknas i denna JVM, jobben körs på " + OPEN_FILES / 2 + " trådar");
+                pool = Executors.newFixedThreadPool(OPEN_FILES / 2);
+            }
+        } else {
+            pool = Executors.newFixedThreadPool(options.getInt("jobs", CPUS));
+        }
+        try {
+            List<Callable<Object>> tasks = new ArrayList<>();
+            for (Job job : jobs) {
+                if (job.isOk()) {
+                    tasks.add(Executors.callable(() -> execute(job)));
+                }
+            }
+            pool.invokeAll(tasks);
+        } finally {
+            pool.shutdown();
+            if (cpuPool != null) {
+                cpuPool.shutdown();
+            }
+        }
+    }
+
+
+    /**
+     * @return Executors.newVirtualThreadPerTaskExecutor() om JVM:en har virtuella trådar, annars null
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Kör ett jobb och sparar resultatet i jobbet.
+     */
+    void execute(Job job) {
+        final long START = System.nanoTime();
+        try {
+            final boolean ENCRYPTING = job.operation.equals(ENCRYPT);
+            HillKernel kernel = kernel(job, ENCRYPTING);
+            if (cpuPool != null) {
+                kernel = new HillParallelKernel(kernel, cpuPool, options.getInt("threads", 1) > 1
+                        ? options.getInt("split", HillParallelKernel.DEFAULT_MIN_BLOCKS) : Integer.MAX_VALUE);
+            }
+            // bufferten allokeras först när jobbet fått sina filer, så att högst --open-files / 2 buffertar finns
+            if (openFiles != null) {
+                openFiles.acquireUninterruptibly(2);
+            }
+            final HillStream STREAM;
+            try {
+                STREAM = new HillStream(kernel, chunkSize);
+                try (InputStream in = new FileInputStream(job.input);
+                     OutputStream out = new FileOutputStream(job.output)) {
+                    if (ENCRYPTING) {
+                        STREAM.encrypt(in, out);
+                    } else {
+                        STREAM.decrypt(in, out);
+                    }
+                }
+            } finally {
+                if (openFiles != null) {
+                    openFiles.release(2);
+                }
+            }
+            job.bytesRead = STREAM.getBytesRead();
+            job.bytesWritten = STREAM.getBytesWritten();
+            if (job.bytesRead == 0) {
+                fail(job, ENCRYPTING ? "Filen innehåller ingen data att kryptera"
+                        : "Filen innehåller ingen data att dekryptera");
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(job, e.getMessage() == null ? e.toString() : e.getMessage());
+        }
+        job.nanos = System.nanoTime() - START;
+    }
+
+
+    private static void fail(Job job, String error) {
+        job.error = error;
+        new File(job.output).delete();
+    }
+
+
+    /**
+     * Med en CPU-pool byggs kärnan utan egna trådar, så att --threads delar upp blocken över CPU-poolen
+     * i stället för över en egen pool per nyckel.
+     */
+    private HillKernel kernel(Job job, boolean encrypting) {
+        final boolean SHARED = cpuPool != null;
+        return HillKeyCache.getInstance().get(job.keyFile,
+                HillKeyCache.variantOf(encrypting ? "key" : "inverse", job.radix, job.blockSize, options)
+                        + (SHARED ? "|cpus" : ""), () -> {
+                    try {
+                        int[][] key = HillKeyFile.readKey(job.keyFile, job.radix, !encrypting);
+                        HillKernel kernel = HillKernel.valueOf(HillKernel.keyOf(key, job.radix, job.blockSize), job.radix,
+                                options.get("kernel", HillKernel.AUTO),
+                                options.getInt("codebook", HillCodebookKernel.DEFAULT_LIMIT));
+                        return SHARED ? kernel : HillParallelKernel.valueOf(kernel, options.getInt("threads", 1),
+                                options.getInt("split", HillParallelKernel.DEFAULT_MIN_BLOCKS));
+                    } catch (NoSuchFileException e) {
+                        throw new UncheckedIOException("Nyckelfilen " + job.keyFile + " finns inte", e);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e.getMessage(), e);
+                    }
+                });
+    }
+
+
+    /**
+     * Skriver en rad per jobb i manifestets ordning och en sammanfattning.
+     */
+    public static void report(List<Job> jobs, long wallNanos, PrintStream out) {
+        int failed = 0;
+        long bytes = 0;
+        for (Job job : jobs) {
+            if (job.isOk()) {
+                bytes += job.bytesRead;
+                out.println(String.format(Locale.ROOT, "rad %d: %s %s -> %s OK, %d -> %d byte, %.3f ms",
+                        job.line, job.operation, job.input, job.output, job.bytesRead, job.bytesWritten, job.nanos / 1e6));
+            } else {
+                failed++;
+                out.println(String.format(Locale.ROOT, "rad %d: %s %s -> %s FEL: %s",
+                        job.line, job.operation, job.input, job.output, job.error));
+            }
+        }
+        out.println(String.format(Locale.ROOT, "%d jobb, %d klara, %d fel, %d byte på %.1f ms, %.2f MB/s",
+                jobs.size(), jobs.size() - failed, failed, bytes, wallNanos / 1e6, bytes / (wallNanos / 1e9) / 1e6));
+        out.println(HillKeyCache.getInstance());
+    }
+
+
+    public static void main(String[] args) {
+        System.out.println("HILLBATCH");
+        HillOptions options = new HillOptions(args);
+        args = options.getArguments();
+        if (args.length != 1) {
+            System.out.println("Fel antal argument.");
+            System.out.println("mata in: <manifest>");
+            System.out.println("flaggor: --jobs=<n> --chunk=<byte>");
+            System.out.println("         --executor=virtual [--cpus=<n>] [--open-files=<n>]");
+            System.out.println("         --threads=<n> [--split=<block>]");
+            System.out.println("         --kernel=<auto|scalar|table|lanes|gemm|codebook> [--codebook=<block>]");
+            System.out.println("manifestet har en rad per jobb: <encrypt|decrypt> <radix> <blocksize> <keyfile> <infile> <outfile>");
+            System.out.println("Försök igen");
+        } else {
+            try {
+                HillBatch batch = new HillBatch(options);
+                List<Job> jobs = readManifest(args[0]);
+                final long START = System.nanoTime();
+                batch.run(jobs);
+                report(jobs, System.nanoTime() - START, System.out);
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                System.out.println("Tillåtna värden är --executor=pool och --executor=virtual");
+            } catch (IOException e) {
+                System.out.println("Manifestet " + args[0] + " gick inte att läsa.");
+            } catch (InterruptedException e) {
+                System.out.println("Körningen avbröts.");
+            }
+        }
+        System.out.println("Programmet avslutas");
+    }
+}
@@ -0,0 +1,357 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+
+/**
+ * Klassen mäter prestanda för HillKeys, HillCipher, HillDecipher, SmsCipher och SmsDecipher.
+ * Varje mätning körs först ett antal uppvärmningsiterationer och sedan ett antal mätiterationer som
+ * vardera upprepar operationen i minst --time millisekunder. Resultatet anges i MB/s (nycklar per sekund
+ * för HillKeys) och i allokerade byte per operation för den tråd som kör mätningen.
+ *
+ * Mätningen sveper över radix, blockstorlek och indatastorlek. Indata till HillCipher har en längd som
+ * ger exakt en byte utfyllnad så att alla radix från 2 och uppåt kan krypteras.
+ *
+ * Mätningen kernel körs inte som standard. Den mäter bara transformen i minnet för varje kärna i --kernels,
+ * så att t.ex. blockvis beräkning (scalar) kan jämföras med GEMM i rutor (gemm) vid alla blockstorlekar.
+ * Kodboken (codebook) mäts bara när radix^n är högst --codebook block.
+ */
+public class HillBench {
+    private static final String[] BENCHMARKS = {"keys", "cipher", "decipher", "smscipher", "smsdecipher"};
+    private static final String[] KERNELS = {HillKernel.SCALAR, HillKernel.TABLE, HillKernel.LANES, HillKernel.GEMM,
+            HillKernel.CODEBOOK};
+
+    private final HillOptions options;
+    private final File directory;
+    private final int warmup;
+    private final int iterations;
+    private final long timeNanos;
+    private final PrintStream out;
+    private final Random random = new Random(4711);
+
+
+    /**
+     *
+     * @param options flaggor för mätningen, skickas även vidare till de uppmätta klasserna
+     * @param directory katalogen där tillfälliga filer skapas
+     */
+    public HillBench(HillOptions options, File directory) {
+        this.options = options;
+        this.directory = directory;
+        this.warmup = options.getInt("warmup", 3);
+        this.iterations = options.getInt("iterations", 5);
+        this.timeNanos = options.getInt("time", 1000) * 1000000L;
+        this.out = System.out;
+    }
+
+
+    /**
+     * Kör alla valda mätningar och skriver en rad per mätning.
+     */
+    public void run() throws IOException {
+        final List<String> benchmarks = listOf(options.get("benchmarks", String.join(",", BENCHMARKS)));
+        final int[] radices = intsOf(options.get("radix", "2,26,256"));
+        final int[] blockSizes = intsOf(options.get("blocksize", "2-8"));
+        final long[] sizes = sizesOf(options.get("sizes", "1k,1m,32m"));
+
+        out.println(String.format(Locale.ROOT, "%-12s %6s %6s %10s %12s %-9s %12s %14s",
+                "benchmark", "radix", "block", "storlek", "takt", "enhet", "ms/op", "B/op"));
+        for (int radix : radices) {
+            for (int blockSize : blockSizes) {
+                final File keyFile = new File(directory, "key-" + radix + "-" + blockSize + ".txt");
+                final File invKeyFile = new File(directory, "invkey-" + radix + "-" + blockSize + ".txt");
+                quietly(() -> new HillKeys(radix, blockSize, keyFile.getPath(), invKeyFile.getPath()));
+                if (benchmarks.contains("kernel")) {
+                    for (long size : sizes) {
+                        benchmarkKernels(radix, blockSize, size);
+                    }
+                }
+                if (benchmarks.contains("keys")) {
+                    report("keys", radix, blockSize, 0, measure(() -> new HillKeys(radix, blockSize,
+                            keyFile.getPath() + ".tmp", invKeyFile.getPath() + ".tmp")));
+                }
+                for (long size : sizes) {
+                    if (benchmarks.contains("cipher") || benchmarks.contains("decipher")) {
+                        benchmarkHill(benchmarks, radix, blockSize, size, keyFile, invKeyFile);
+                    }
+                }
+            }
+        }
+        if (benchmarks.contains("smscipher") || benchmarks.contains("smsdecipher")) {
+            final File keyFile = new File(directory, "sms-key.txt");
+            final File invKeyFile = new File(directory, "sms-invkey.txt");
+            quietly(() -> new HillKeys(26, 3, keyFile.getPath(), invKeyFile.getPath()));
+            for (long size : sizes) {
+                benchmarkSms(benchmarks, size, keyFile, invKeyFile);
+            }
+        }
+        out.println(HillKeyCache.getInstance());
+    }
+
+
+    private void benchmarkKernels(int radix, int blockSize, long size) {
+        final int BLOCKS = (int) Math.max(1, Math.min(size, Integer.MAX_VALUE / 2) / blockSize);
+        final byte[] src = new byte[BLOCKS * blockSize];
+        final byte[] dst = new byte[src.length];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = (byte) random.nextInt(radix);
+        }
+        final int[][] key = HillKeys.randomKey(radix, blockSize);
+        for (String name : listOf(options.get("kernels", String.join(",", KERNELS)))) {
+            if (name.equals(HillKernel.CODEBOOK) && HillCodebookKernel.entries(radix, blockSize,
+                    options.getInt("codebook", HillCodebookKernel.DEFAULT_LIMIT)) < 0) {
+                out.println("kernel/" + name + ": kodboken blir större än --codebook för radix " + radix
+                        + " och blockstorlek " + blockSize);
+                continue;
+            }
+            final HillKernel kernel;
+            try {
+                kernel = HillKernel.valueOf(key, radix, name, Integer.MAX_VALUE);
+            } catch (IllegalArgumentException e) {
+                out.println("kernel/" + name + ": " + e.getMessage());
+                continue;
+            }
+            report("kernel/" + name, radix, blockSize, src.length,
+                    measure(() -> kernel.transform(src, 0, dst, 0, BLOCKS)));
+        }
+    }
+
+
+    private void benchmarkHill(List<String> benchmarks, int radix, int blockSize, long size,
+                               File keyFile, File invKeyFile) throws IOException {
+        final long LENGTH = (size / blockSize) * blockSize + blockSize - 1;
+        final File plainFile = new File(directory, "plain.bin");
+        final File cipherFile = new File(directory, "cipher.bin");
+        final File decipheredFile = new File(directory, "deciphered.bin");
+        writeRandom(plainFile, LENGTH, radix, 0);
+        quietly(() -> new HillCipher(radix, blockSize, keyFile.getPath(), plainFile.getPath(),
+                cipherFile.getPath(), options));
+        if (benchmarks.contains("cipher")) {
+            report("cipher", radix, blockSize, LENGTH, measure(() -> new HillCipher(radix, blockSize,
+                    keyFile.getPath(), plainFile.getPath(), cipherFile.getPath(), options)));
+        }
+        if (benchmarks.contains("decipher")) {
+            report("decipher", radix, blockSize, LENGTH, measure(() -> new HillDecipher(radix, blockSize,
+                    invKeyFile.getPath(), decipheredFile.getPath(), cipherFile.getPath(), options)));
+        }
+        plainFile.delete();
+        cipherFile.delete();
+        decipheredFile.delete();
+    }
+
+
+    private void benchmarkSms(List<String> benchmarks, long size, File keyFile, File invKeyFile) throws IOException {
+        final long LENGTH = Math.max(3, (size / 3) * 3);
+        final File plainFile = new File(directory, "sms-plain.txt");
+        final File cipherFile = new File(directory, "sms-cipher.txt");
+        final File decipheredFile = new File(directory, "sms-deciphered.txt");
+        writeRandom(plainFile, LENGTH, 26, 'A');
+        quietly(() -> new SmsCipher(26, 3, keyFile.getPath(), plainFile.getPath(), cipherFile.getPath(), options));
+        if (benchmarks.contains("smscipher")) {
+            report("smscipher", 26, 3, LENGTH, measure(() -> new SmsCipher(26, 3, keyFile.getPath(),
+                    plainFile.getPath(), cipherFile.getPath(), options)));
+        }
+        if (benchmarks.contains("smsdecipher")) {
+            report("smsdecipher", 26, 3, LENGTH, measure(() -> new SmsDecipher(26, 3, invKeyFile.getPath(),
+                    decipheredFile.getPath(), cipherFile.getPath(), options)));
+        }
+        plainFile.delete();
+        cipherFile.delete();
+        decipheredFile.delete();
+    }
+
+
+    /**
+     * @return {antal operationer, nanosekunder, allokerade byte} summerat över mätiterationerna
+     */
+    private long[] measure(Runnable operation) {
+        for (int i = 0; i < warmup; i++) {
+            repeat(operation);
+        }
+        long[] total = new long[3];
+        for (int i = 0; i < iterations; i++) {
+            long[] result = repeat(operation);
+            for (int j = 0; j < total.length; j++) {
+                total[j] += result[j];
+            }
+        }
+        return total;
+    }
+
+
+    private long[] repeat(Runnable operation) {
+        final long ALLOCATED = allocatedBytes();
+        final long START = System.nanoTime();
+        long operations = 0;
+        long elapsed;
+        do {
+            quietly(operation);
+            operations++;
+            elapsed = System.nanoTime() - START;
+        } while (elapsed < timeNanos);
+        return new long[]{operations, elapsed, allocatedBytes() - ALLOCATED};
+    }
+
+
+    private void report(String benchmark, int radix, int blockSize, long bytes, long[] result) {
+        final double SECONDS = result[1] / 1e9;
+        final double RATE = bytes == 0 ? result[0] / SECONDS : bytes * result[0] / SECONDS / 1e6;
+        out.println(String.format(Locale.ROOT, "%-12s %6d %6d %10s %12.2f %-9s %12.3f %14d",
+                benchmark, radix, blockSize, bytes == 0 ? "-" : sizeOf(bytes), RATE, bytes == 0 ? "nycklar/s" : "MB/s",
+                result[1] / 1e6 / result[0], result[2] < 0 ? -1 : result[2] / result[0]));
+    }
+
+
+    private void quietly(Runnable operation) {
+        PrintStream original = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+        try {
+            operation.run();
+        } finally {
+            System.setOut(original);
+        }
+    }
+
+
+    private void writeRandom(File file, long length, int radix, int offset) throws IOException {
+        final byte[] buffer = new byte[1 << 16];
+        try (OutputStream output = new BufferedOutputStream(new FileOutputStream(file))) {
+            for (long written = 0; written < length; written += buffer.length) {
+                final int SIZE = (int) Math.min(buffer.length, length - written);
+                for (int i = 0; i < SIZE; i++) {
+                    buffer[i] = (byte) (offset + random.nextInt(radix));
+                }
+                output.write(buffer, 0, SIZE);
+            }
+        }
+    }
+
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+
+    private static List<String> listOf(String value) {
+        List<String> result = new ArrayList<>();
+        for (String item : value.split(",")) {
+            result.add(item.trim().toLowerCase(Locale.ROOT));
+        }
+        return result;
+    }
+
+
+    private static int[] intsOf(String value) {
+        List<Integer> result = new ArrayList<>();
+        for (String item : listOf(value)) {
+            int range = item.indexOf('-');
+            if (range > 0) {
+                for (int i = Integer.parseInt(item.substring(0, range)); i <= Integer.parseInt(item.substring(range + 1)); i++) {
+                    result.add(i);
+                }
+            } else {
+                result.add(Integer.parseInt(item));
+            }
+        }
+        int[] ints = new int[result.size()];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = result.get(i);
+        }
+        return ints;
+    }
+
+
+    private static long[] sizesOf(String value) {
+        List<String> items = listOf(value);
+        long[] sizes = new long[items.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = parseSize(items.get(i));
+        }
+        return sizes;
+    }
+
+
+    /**
+     * @param item en storlek i byte, eventuellt med suffixet k, m eller g
+     */
+    static long parseSize(String item) {
+        long unit = 1;
+        if (item.endsWith("k")) {
+            unit = 1L << 10;
+        } else if (item.endsWith("m")) {
+            unit = 1L << 20;
+        } else if (item.endsWith("g")) {
+            unit = 1L << 30;
+        }
+        return Long.parseLong(unit == 1 ? item : item.substring(0, item.length() - 1)) * unit;
+    }
+
+
+    static String sizeOf(long bytes) {
+        if (bytes >= 1L << 30) {
+            return (bytes >> 30) + "g";
+        } else if (bytes >= 1L << 20) {
+            return (bytes >> 20) + "m";
+        } else if (bytes >= 1L << 10) {
+            return (bytes >> 10) + "k";
+        }
+        return Long.toString(bytes);
+    }
+
+
+    public static void main(String[] args) {
+        System.out.println("HILLBENCH");
+        HillOptions options = new HillOptions(args);
+        if (options.getArguments().length != 0) {
+            System.out.println("Fel antal argument.");
+            System.out.println("mata in: [--benchmarks=keys,cipher,decipher,smscipher,smsdecipher,kernel]");
+            System.out.println("         [--kernels=scalar,table,lanes,gemm,codebook] [--codebook=<block>]");
+            System.out.println("         [--radix=2,26,256] [--blocksize=2-8] [--sizes=1k,1m,32m,1g]");
+            System.out.println("         [--warmup=<n>] [--iterations=<n>] [--time=<ms>]");
+            System.out.println("övriga flaggor skickas vidare till HillCipher, HillDecipher, SmsCipher och SmsDecipher");
+        } else {
+            File directory = null;
+            try {
+                directory = Files.createTempDirectory("hillbench").toFile();
+                new HillBench(options, directory).run();
+            } catch (NumberFormatException e) {
+                System.out.println("Felaktigt värde i en lista: " + e.getMessage());
+            } catch (IOException e) {
+                System.out.println("Något gick fel med de tillfälliga filerna: " + e.getMessage());
+            } finally {
+                if (directory != null) {
+                    File[] files = directory.listFiles();
+                    if (files != null) {
+                        for (File file : files) {
+                            file.delete();
+                        }
+                    }
+                    directory.delete();
+                }
+            }
+        }
+        System.out.println("Programmet avslutas");
+    }
+}
@@ -1,12 +1,11 @@
-import org.jscience.mathematics.number.LargeInteger;
 import org.jscience.mathematics.number.Rational;
 import org.jscience.mathematics.vector.DenseMatrix;
-import org.jscience.mathematics.vector.DenseVector;
 import org.jscience.mathematics.vector.DimensionException;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Paths;
 import java.util.Arrays;
 
@@ -18,9 +17,9 @@ import java.util.Arrays;
  * nyckeln. det krypterade meddelandet skrivs till en annan angiven fil.
  */
 public class HillCipher {
-    private final DenseMatrix<Rational> plainText;
-    private final DenseMatrix<Rational> key;
-    private final DenseMatrix<Rational> cipher;
+    private byte[] plainText;
+    private HillKernel key;
+    private byte[] cipher;
 
 
     /**
@@ -33,28 +32,137 @@ public class HillCipher {
      */
     public HillCipher(int radix, int blockSize, String keyFile, String plainFile, String cipherFile) {
 
-        byte[] plainText = plainTextBlockSequence(blockSize, plainFile);
-        this.plainText = getPlainTextMatrix(plainText, blockSize, radix);
-        this.key = getKeyFrom(keyFile);
-        this.cipher = encryptPlain(radix);
-        writeCipherToFile(cipherFile);
+        this(radix, blockSize, keyFile, plainFile, cipherFile, new HillOptions(new String[0]));
     }
 
 
-    private void writeCipherToFile(String cipherFile) {
+    /**
+     *
+     * @param radix modulovärdet
+     * @param blockSize storleken på ett block
+     * @param keyFile filen med nyckeln
+     * @param plainFile filen med texten som ska krypteras
+     * @param cipherFile filen att skriva den krypterade texten till
+     * @param options flaggor, --stream krypterar filen i delar om --chunk byte, --mmap krypterar
+     *                via minnesmappade filer och --pipeline överlappar läsning, kryptering och skrivning
+     *                med --buffers buffrar om --chunk byte. --stats skriver ut tid och MB/s per fas
+     */
+    public HillCipher(int radix, int blockSize, String keyFile, String plainFile, String cipherFile,
+                      HillOptions options) {
+        final HillStats STATS = new HillStats(radix, blockSize);
+        HillStats.Phase phase;
+        if (options.has("mmap") || options.has("pipeline")) {
+            phase = STATS.begin(HillStats.KEY);
+            this.key = loadKernel(keyFile, radix, blockSize, options);
+            phase.end(0);
+            phase = STATS.begin(options.has("pipeline") ? "pipeline" : "mmap");
+            phase.end(channelCipher(plainFile, cipherFile, options));
+        } else if (options.has("stream")) {
+            phase = STATS.begin(HillStats.KEY);
+            this.key = loadKernel(keyFile, radix, blockSize, options);
+            phase.end(0);
+            phase = STATS.begin("stream");
+            phase.end(streamCipher(plainFile, cipherFile, options.getInt("chunk", HillStream.DEFAULT_CHUNK_SIZE)));
+        } else {
+            phase = STATS.begin(HillStats.READ);
+            this.plainText = plainTextBlockSequence(blockSize, plainFile);
+            phase.end(this.plainText.length);
+            phase = STATS.begin(HillStats.CHECK);
+            checkPlainText(radix);
+            phase.end(this.plainText.length);
+            phase = STATS.begin(HillStats.KEY);
+            this.key = loadKernel(keyFile, radix, blockSize, options);
+            phase.end(0);
+            phase = STATS.begin(HillStats.TRANSFORM);
+            this.cipher = encryptPlain(blockSize);
+            phase.end(this.cipher.length);
+            phase = STATS.begin(HillStats.WRITE);
+            writeCipherToFile(cipherFile);
+            phase.end(this.cipher.length);
+        }
+        if (options.has("stats")) {
+            STATS.print(System.out);
+        }
+    }
 
-        final int ROWS = this.cipher.getNumberOfRows();
-        final int COLUMNS = this.cipher.getNumberOfColumns();
-        final byte[] CIPHER = new byte[COLUMNS * ROWS];
-        int index = 0;
-        for (int i = 0; i < COLUMNS; i++) {
-            for (int j = 0; j < ROWS; j++) {
-                CIPHER[index++] = this.cipher.get(j, i).getDividend().byteValue();
+
+    private long channelCipher(String plainFile, String cipherFile, HillOptions options) {
+        long size = 0;
+        try {
+            size = Files.size(Paths.get(plainFile));
+            if(size == 0){
+                System.out.println("Filen innehåller ingen data att kryptera.");
+                System.out.println();
+                System.out.println("Kryptering avbruten. programmet avslutas");
+                System.exit(0);
+            }
+            if (options.has("pipeline")) {
+                HillPipeline.encrypt(this.key, plainFile, cipherFile,
+                        options.getInt("chunk", HillPipeline.DEFAULT_CHUNK_SIZE),
+                        options.getInt("buffers", HillPipeline.DEFAULT_BUFFERS));
+            } else {
+                HillMapped.encrypt(this.key, plainFile, cipherFile);
             }
+        } catch (IllegalArgumentException e) {
+            new File(cipherFile).delete();
+            System.out.println("All input måste ha ett värde som är mindre än radix.");
+            System.out.println("Kryptering avbruten. programmet avslutas");
+            System.exit(0);
+        } catch (NoSuchFileException e) {
+            System.out.println("Filen " + e.getFile() + " gick inte att öppna.");
+            System.out.println("Kontrollera att filen finns och försök igen.");
+            System.out.println();
+            System.out.println("Programmet avslutas");
+            System.exit(0);
+        } catch (IOException e) {
+            System.out.println("Något gick fel vid kryptering av " + plainFile + " till " + cipherFile);
+            System.out.println("Kryptering avbruten. Programmet avslutas.");
+            System.exit(0);
         }
+        return size;
+    }
+
+
+    private long streamCipher(String plainFile, String cipherFile, int chunkSize) {
+        HillStream stream = new HillStream(this.key, chunkSize);
+        try (FileInputStream fis = new FileInputStream(plainFile)){
+            if(fis.getChannel().size() == 0){
+                System.out.println("Filen innehåller ingen data att kryptera.");
+                System.out.println();
+                System.out.println("Kryptering avbruten. programmet avslutas");
+                System.exit(0);
+            }
+            try (FileOutputStream fos = new FileOutputStream(cipherFile)){
+                stream.encrypt(fis, fos);
+            } catch (IllegalArgumentException e) {
+                new File(cipherFile).delete();
+                System.out.println("All input måste ha ett värde som är mindre än radix.");
+                System.out.println("Kryptering avbruten. programmet avslutas");
+                System.exit(0);
+            } catch (FileNotFoundException e) {
+                System.out.print("Kontrollera skrivrättigheter för " + cipherFile + " och försök igen.");
+                System.out.println("Kryptering avbruten. Programmet avslutas.");
+                System.exit(0);
+            }
+        } catch (FileNotFoundException e) {
+            System.out.println("Filen " + plainFile + " gick inte att öppna.");
+            System.out.println("Kontrollera att filen finns och försök igen.");
+            System.out.println();
+            System.out.println("Programmet avslutas");
+            System.exit(0);
+        } catch (IOException e) {
+            System.out.println("Något gick fel vid kryptering av " + plainFile + " till " + cipherFile);
+            System.out.println("Kryptering avbruten. Programmet avslutas.");
+            System.exit(0);
+        }
+        return stream.getBytesRead();
+    }
+
+
+    private void writeCipherToFile(String cipherFile) {
         try (FileOutputStream fos = new FileOutputStream(cipherFile)){
             DataOutputStream output = new DataOutputStream(fos);
-            output.write(CIPHER);
+            output.write(this.cipher);
             output.close();
         } catch (FileNotFoundException e) {
             System.out.print("Kontrollera skrivrättigheter för " + cipherFile + " och försök igen.");
@@ -68,56 +176,51 @@ public class HillCipher {
     }
 
 
-    private DenseMatrix<Rational> encryptPlain(int radix){
-        final int COLUMNS = this.plainText.getNumberOfColumns();
-        @SuppressWarnings("unchecked")
-        DenseVector<Rational>[] columns = new DenseVector[COLUMNS];
-        for (int i = 0; i < COLUMNS; i++){
-            columns[i] = encrypt(radix, this.plainText.getColumn(i));
-        }
-        return collect(columns);
+    private byte[] encryptPlain(int blockSize){
+        final byte[] CIPHER = new byte[this.plainText.length];
+        this.key.transform(this.plainText, 0, CIPHER, 0, this.plainText.length / blockSize);
+        return CIPHER;
     }
 
 
-    private DenseMatrix<Rational> collect(DenseVector<Rational>[] allColumns){
-        Rational[][] matrix = new Rational[this.plainText.getNumberOfRows()][this.plainText.getNumberOfColumns()];
-        for(int i = 0; i < allColumns.length; i++){
-            for(int j = 0; j < allColumns[i].getDimension(); j++){
-                matrix[j][i] = allColumns[i].get(j);
-            }
-        }
-        return DenseMatrix.valueOf(matrix);
+    private HillKernel loadKernel(String keyFile, int radix, int blockSize, HillOptions options) {
+        return HillKeyCache.getInstance().get(keyFile, HillKeyCache.variantOf("key", radix, blockSize, options),
+                () -> createKernel(getKeyFrom(keyFile, radix), radix, blockSize, options));
     }
 
 
-    private DenseVector<Rational> encrypt(int radix, DenseVector<Rational> column){
-        Rational[] tempVector = null;
+    private HillKernel createKernel(int[][] key, int radix, int blockSize, HillOptions options){
+        HillKernel kernel = null;
         try{
-            DenseVector<Rational> plainKeyProduct = this.key.times(column);
-
-            final int DIMENSIONS = plainKeyProduct.getDimension();
-            tempVector = new Rational[DIMENSIONS];
-
-            for(int i = 0; i < DIMENSIONS; i++){
-                tempVector[i] = Rational.valueOf(plainKeyProduct.get(i).getDividend().mod(LargeInteger.valueOf(radix)),
-                        LargeInteger.ONE);
+            kernel = HillKernel.valueOf(HillKernel.keyOf(key, radix, blockSize), radix,
+                    options.get("kernel", HillKernel.AUTO), options.getInt("codebook", HillCodebookKernel.DEFAULT_LIMIT));
+            if (kernel instanceof HillCodebookKernel) {
+                System.out.println(kernel);
             }
+            kernel = HillParallelKernel.valueOf(kernel,
+                    options.getInt("threads", 1), options.getInt("split", HillParallelKernel.DEFAULT_MIN_BLOCKS));
         } catch (DimensionException e) {
             System.out.println("Nyckeln måste ha dimensionen nxn och blockstorleken måste vara nx1");
             System.out.println("Försök igen.");
             System.out.println();
             System.out.println("Kryptering avbryts. Programmet avslutas");
             System.exit(0);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Tillåtna värden är --kernel=auto, --kernel=scalar, --kernel=table, --kernel=lanes, --kernel=gemm och --kernel=codebook");
+            System.out.println();
+            System.out.println("Kryptering avbryts. Programmet avslutas");
+            System.exit(0);
         }
-        return DenseVector.valueOf(tempVector);
+        return kernel;
     }
 
 
 
-    private DenseMatrix<Rational> getKeyFrom(String keyFile) {
-        String key = null;
+    private int[][] getKeyFrom(String keyFile, int radix) {
+        byte[] key = null;
         try {
-            key = new String(Files.readAllBytes(Paths.get(keyFile)));
+            key = Files.readAllBytes(Paths.get(keyFile));
         } catch (OutOfMemoryError e){
             System.out.println("Inte tillräckligt med minne.");
             System.out.println("Försök igen.");
@@ -141,7 +244,30 @@ public class HillCipher {
             System.out.println("Kryptering avbryts. Programmet avslutas");
             System.exit(0);
         }
-        return createKeyMatrix(key);
+        if (HillKeyFile.isBinary(key)) {
+            return getBinaryKey(key, keyFile, radix);
+        }
+        return HillKernel.keyOf(createKeyMatrix(new String(key)), radix);
+    }
+
+
+    private int[][] getBinaryKey(byte[] data, String keyFile, int radix) {
+        HillKeyFile keys = null;
+        try {
+            keys = HillKeyFile.valueOf(data);
+        } catch (IOException e) {
+            System.out.println(e.getMessage() + ": " + keyFile);
+            System.out.println();
+            System.out.println("Kryptering avbryts. Programmet avslutas");
+            System.exit(0);
+        }
+        if (keys.getRadix() != radix) {
+            System.out.println("Nyckeln i " + keyFile + " är skapad för radix " + keys.getRadix());
+            System.out.println();
+            System.out.println("Kryptering avbryts. Programmet avslutas");
+            System.exit(0);
+        }
+        return keys.getKey();
     }
 
     private DenseMatrix<Rational> createKeyMatrix(String key) {
@@ -182,27 +308,14 @@ public class HillCipher {
     }
 
 
-    private DenseMatrix<Rational> getPlainTextMatrix(byte[] plainText, int blockSize, int radix) {
-        Rational[][] plainMatrix = new Rational[blockSize][plainText.length/blockSize];
-        final int COLUMNS = blockSize;
-        final int ROWS = plainText.length/blockSize;
-        int offset = 0;
-        LargeInteger value;
-        for (int i = 0; i < ROWS; i++){
-            for (int j = 0; j < COLUMNS; j++){
-                value = LargeInteger.valueOf(plainText, offset++, 1);
-                if(value.isNegative()){
-                    value = LargeInteger.valueOf(value.longValue() & 0xFF);
-                }
-                if(radix <= value.longValue()){
-                    System.out.println("All input måste ha ett värde som är mindre än radix.");
-                    System.out.println("Kryptering avbruten. programmet avslutas");
-                    System.exit(0);
-                }
-                plainMatrix[j][i] = Rational.valueOf(value, LargeInteger.ONE);
+    private void checkPlainText(int radix) {
+        for (byte b : this.plainText) {
+            if(radix <= (b & 0xFF)){
+                System.out.println("All input måste ha ett värde som är mindre än radix.");
+                System.out.println("Kryptering avbruten. programmet avslutas");
+                System.exit(0);
             }
         }
-        return DenseMatrix.valueOf(plainMatrix);
     }
 
     private byte[] plainTextBlockSequence(int blockSize, String fileName){
@@ -217,9 +330,7 @@ public class HillCipher {
             }
             plainText = new byte[FILESIZE];
             DataInputStream input  = new DataInputStream(fis);
-            for(int i = 0; i < plainText.length; i++) {
-                plainText[i] = input.readByte();
-            }
+            input.readFully(plainText);
         } catch (FileNotFoundException e) {
             System.out.println("Filen " + fileName + " gick inte att öppna.");
             System.out.println("Kontrollera att filen finns och försök igen.");
@@ -241,25 +352,22 @@ public class HillCipher {
     }
 
     private byte[] padPlainText(byte[] plainText, int blockSize){
-        int padding = blockSize - plainText.length % blockSize;
-        return addPadding(padding, plainText);
-
-    }
-
-    private byte[] addPadding(int padding, byte[] plainText) {
-        byte[] result;
-        result = Arrays.copyOf(plainText, plainText.length + padding);
-        for (int i = plainText.length; i < result.length; i++) {
-            result[i] = (byte) padding;
-        }
+        int padding = HillPadding.paddingFor(plainText.length, blockSize);
+        byte[] result = Arrays.copyOf(plainText, plainText.length + padding);
+        HillPadding.pad(result, plainText.length, blockSize);
         return result;
     }
 
     public static void main(String[] args){
         System.out.println("HILLCIPHER");
+        HillOptions options = new HillOptions(args);
+        args = options.getArguments();
         if(args.length != 5) {
             System.out.println("Fel antal argument.");
             System.out.println("mata in: <radix> <blocksize> <keyfile> <plainfile> <cipherfile>");
+            System.out.println("flaggor: --stream [--chunk=<byte>] | --mmap | --pipeline [--chunk=<byte>] [--buffers=<n>]");
+            System.out.println("         --threads=<n> [--split=<block>] --stats");
+            System.out.println("         --kernel=<auto|scalar|table|lanes|gemm|codebook> [--codebook=<block>]");
             System.out.println("Kryptering avbruten försök igen");
         }  else {
             int radix;
@@ -280,7 +388,7 @@ public class HillCipher {
                         System.out.println("Programmet anropades med <blocksize> = " + args[1]);
                         System.out.println("Kryptering avbruten försök igen");
                     } else {
-                        new HillCipher(radix, blockSize, keyFile, plainFile, cipherFile);
+                        new HillCipher(radix, blockSize, keyFile, plainFile, cipherFile, options);
                         System.out.println("Kryptering genomförd");
                     }
 
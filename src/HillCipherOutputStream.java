@@ -0,0 +1,162 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * Klassen krypterar allt som skrivs till den och skriver chiffertexten till en underliggande ström.
+ * Symbolerna samlas i en buffer av hela block och krypteras när buffern är full. Stora skrivningar
+ * krypteras direkt från anroparens array till buffern utan att först kopieras. Utfyllnaden läggs
+ * till av finish() eller close().
+ *
+ * En kärna skapas t.ex. med HillKernel.valueOf(HillKeyFile.readKey(keyFile, radix, false), radix).
+ */
+public class HillCipherOutputStream extends FilterOutputStream {
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final HillKernel kernel;
+    private final int BLOCKSIZE;
+    private final byte[] buffer;
+    private int count;
+    private long bytesRead;
+    private boolean finished;
+    private boolean closed;
+
+
+    public HillCipherOutputStream(OutputStream out, HillKernel kernel) {
+        this(out, kernel, DEFAULT_BUFFER_SIZE);
+    }
+
+
+    /**
+     *
+     * @param out strömmen som chiffertexten skrivs till
+     * @param kernel kärnan som krypterar blocken
+     * @param bufferSize ungefärlig storlek på buffern, avrundas nedåt till hela block
+     */
+    public HillCipherOutputStream(OutputStream out, HillKernel kernel, int bufferSize) {
+        super(out);
+        this.kernel = kernel;
+        this.BLOCKSIZE = kernel.getDimension();
+        this.buffer = new byte[Math.max(1, bufferSize / BLOCKSIZE) * BLOCKSIZE];
+    }
+
+
+    /**
+     * @throws IllegalArgumentException om en symbol är större än eller lika med radix
+     */
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        this.buffer[this.count++] = (byte) b;
+        this.bytesRead++;
+        if (this.count == this.buffer.length) {
+            drain(this.count);
+        }
+    }
+
+
+    /**
+     * @throws IllegalArgumentException om en symbol är större än eller lika med radix
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        this.bytesRead += len;
+        if (this.count > 0) {
+            final int SIZE = Math.min(len, this.buffer.length - this.count);
+            System.arraycopy(b, off, this.buffer, this.count, SIZE);
+            this.count += SIZE;
+            off += SIZE;
+            len -= SIZE;
+            if (this.count < this.buffer.length) {
+                return;
+            }
+            drain(this.count);
+        }
+        while (len >= this.buffer.length) {
+            this.kernel.checkSymbols(b, off, this.buffer.length);
+            this.kernel.transform(b, off, this.buffer, 0, this.buffer.length / BLOCKSIZE);
+            this.out.write(this.buffer, 0, this.buffer.length);
+            off += this.buffer.length;
+            len -= this.buffer.length;
+        }
+        System.arraycopy(b, off, this.buffer, 0, len);
+        this.count = len;
+    }
+
+
+    /**
+     * Krypterar och skriver alla hela block i buffern. Ett ofullständigt block ligger kvar tills det
+     * har fyllts eller strömmen avslutas.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        final int LENGTH = this.count / BLOCKSIZE * BLOCKSIZE;
+        if (LENGTH > 0) {
+            drain(LENGTH);
+        }
+        this.out.flush();
+    }
+
+
+    /**
+     * Fyller ut och krypterar det sista blocket utan att stänga den underliggande strömmen. Inget
+     * mer kan skrivas efteråt.
+     */
+    public void finish() throws IOException {
+        if (this.finished) {
+            return;
+        }
+        ensureOpen();
+        this.finished = true;
+        drain(HillPadding.pad(this.buffer, this.count, BLOCKSIZE));
+        this.out.flush();
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        try {
+            finish();
+        } finally {
+            this.closed = true;
+            this.out.close();
+        }
+    }
+
+
+    /**
+     * @return antal okrypterade symboler som har skrivits till strömmen
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+
+    /**
+     * Krypterar de length första symbolerna i buffern, som måste vara hela block, och flyttar
+     * resten till början.
+     */
+    private void drain(int length) throws IOException {
+        this.kernel.checkSymbols(this.buffer, 0, length);
+        this.kernel.transform(this.buffer, 0, this.buffer, 0, length / BLOCKSIZE);
+        this.out.write(this.buffer, 0, length);
+        this.count -= Math.min(this.count, length);
+        System.arraycopy(this.buffer, length, this.buffer, 0, this.count);
+    }
+
+
+    private void ensureOpen() throws IOException {
+        if (this.finished || this.closed) {
+            throw new IOException("Strömmen är stängd");
+        }
+    }
+}
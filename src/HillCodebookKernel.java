@@ -0,0 +1,120 @@
+import java.nio.ByteBuffer;
+
+
+/**
+ * Klassen krypterar och dekrypterar block med en fullständig kodbok. När radix^blockstorlek är litet
+ * beräknas resultatet för varje möjligt block i förväg, så ett block transformeras med ett enda
+ * uppslag. För SMS med radix 26 och blockstorlek 3 finns bara 17 576 möjliga block.
+ */
+public class HillCodebookKernel extends HillKernel {
+    public static final int DEFAULT_LIMIT = 1 << 20;
+
+    private final byte[] codebook;
+    private final int RADIX;
+    private final int DIMENSION;
+    private final long buildNanos;
+
+
+    /**
+     *
+     * @param kernel kärnan som beräknar kodboken
+     */
+    public HillCodebookKernel(HillKernel kernel) {
+        super(kernel.getRadix(), kernel.getDimension());
+        this.RADIX = kernel.getRadix();
+        this.DIMENSION = kernel.getDimension();
+        final long ENTRIES = entries(RADIX, DIMENSION, Integer.MAX_VALUE / DIMENSION);
+        if (ENTRIES < 0) {
+            throw new IllegalArgumentException("Kodboken blir för stor för radix " + RADIX
+                    + " och blockstorlek " + DIMENSION);
+        }
+        final long START = System.nanoTime();
+        this.codebook = new byte[(int) ENTRIES * DIMENSION];
+        final int[] digits = new int[DIMENSION];
+        for (int block = 0, offset = 0; block < ENTRIES; block++, offset += DIMENSION) {
+            for (int j = 0; j < DIMENSION; j++) {
+                this.codebook[offset + j] = (byte) digits[j];
+            }
+            for (int j = DIMENSION - 1; j >= 0 && ++digits[j] == RADIX; j--) {
+                digits[j] = 0;
+            }
+        }
+        kernel.transform(this.codebook, 0, this.codebook, 0, (int) ENTRIES);
+        this.buildNanos = System.nanoTime() - START;
+    }
+
+
+    /**
+     * @param radix modulovärdet
+     * @param dimension blockstorleken
+     * @param limit största tillåtna antal block
+     * @return radix^dimension, eller -1 om det är större än limit
+     */
+    public static long entries(int radix, int dimension, long limit) {
+        long entries = 1;
+        for (int i = 0; i < dimension; i++) {
+            entries *= radix;
+            if (entries > limit) {
+                return -1;
+            }
+        }
+        return entries;
+    }
+
+
+    /**
+     * @return antal block i kodboken
+     */
+    public int getEntries() {
+        return codebook.length / DIMENSION;
+    }
+
+    /**
+     * @return kodbokens storlek i byte
+     */
+    public int getMemory() {
+        return codebook.length;
+    }
+
+    /**
+     * @return tiden det tog att bygga kodboken i nanosekunder
+     */
+    public long getBuildNanos() {
+        return buildNanos;
+    }
+
+
+    @Override
+    public void transform(byte[] src, int srcOffset, byte[] dst, int dstOffset, int blocks) {
+        for (int b = 0; b < blocks; b++) {
+            int index = 0;
+            for (int j = 0; j < DIMENSION; j++) {
+                index = index * RADIX + (src[srcOffset++] & 0xFF);
+            }
+            System.arraycopy(codebook, index * DIMENSION, dst, dstOffset, DIMENSION);
+            dstOffset += DIMENSION;
+        }
+    }
+
+
+    @Override
+    public void transform(ByteBuffer src, int srcIndex, ByteBuffer dst, int dstIndex, int blocks) {
+        for (int b = 0; b < blocks; b++) {
+            int index = 0;
+            for (int j = 0; j < DIMENSION; j++) {
+                index = index * RADIX + (src.get(srcIndex++) & 0xFF);
+            }
+            index *= DIMENSION;
+            for (int i = 0; i < DIMENSION; i++) {
+                dst.put(dstIndex++, codebook[index + i]);
+            }
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return "Kodbok: " + getEntries() + " block, " + getMemory() + " byte, byggd på "
+                + (buildNanos / 1000) + " µs";
+    }
+}
@@ -0,0 +1,369 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Klassen kör en tjänst som krypterar och dekrypterar meddelanden med nycklarna i en nyckelfil från
+ * HillKeyStore. Tjänsten lyssnar på en TCP-port på 127.0.0.1 och håller kärnorna varma i HillKeyCache,
+ * så ett meddelande kostar varken JVM-start eller inläsning av nyckeln.
+ *
+ * En förfrågan består av en byte med operationen (ENCRYPT, DECRYPT eller SHUTDOWN) följd av nyckelns id,
+ * radix, blockstorlek och längd som int samt meddelandet. Svaret är en statusbyte (OK eller ERROR), en
+ * längd som int och resultatet eller ett felmeddelande i UTF-8. En anslutning kan skicka flera förfrågningar
+ * och stängs när den har varit oanvänd i 30 sekunder.
+ */
+public class HillDaemon {
+    public static final int DEFAULT_PORT = 7413;
+    public static final int DEFAULT_CONNECTIONS = 64;
+    public static final int DEFAULT_MAX_PAYLOAD = 1 << 24;
+    public static final byte ENCRYPT = 'E';
+    public static final byte DECRYPT = 'D';
+    public static final byte SHUTDOWN = 'S';
+    public static final byte OK = 0;
+    public static final byte ERROR = 1;
+    private static final int IDLE_TIMEOUT = 500;
+    private static final int MAX_IDLE = 30000;
+    private static final int READ_TIMEOUT = 30000;
+
+    private final HillKeyStore keyStore;
+    private final String keyStoreFile;
+    private final HillOptions options;
+    private final String kernelType;
+    private final int codebookLimit;
+    private final int maxPayload;
+    private final Semaphore connections;
+    private final ExecutorService workers;
+    private final ServerSocket server;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile boolean running = true;
+
+
+    /**
+     *
+     * @param keyStoreFile nyckelfilen med nyckelparen
+     * @param options --port, --connections, --max-payload samt flaggorna för kärnan
+     * @throws IllegalArgumentException om --kernel är okänd
+     */
+    public HillDaemon(String keyStoreFile, HillOptions options) throws IOException {
+        this.keyStore = new HillKeyStore(keyStoreFile);
+        this.keyStoreFile = keyStoreFile;
+        this.options = options;
+        this.kernelType = options.get("kernel", HillKernel.AUTO);
+        this.codebookLimit = options.getInt("codebook", HillCodebookKernel.DEFAULT_LIMIT);
+        this.maxPayload = options.getInt("max-payload", DEFAULT_MAX_PAYLOAD);
+        final int CONNECTIONS = options.getInt("connections", DEFAULT_CONNECTIONS);
+        try {
+            // kärnan för den första nyckeln byggs direkt så att en felaktig --kernel upptäcks vid start
+            kernel(0, keyStore.getRadix(), keyStore.getDimension(), "key");
+            this.server = new ServerSocket(options.getInt("port", DEFAULT_PORT), 128, InetAddress.getLoopbackAddress());
+        } catch (IOException | RuntimeException e) {
+            keyStore.close();
+            throw e;
+        }
+        this.connections = new Semaphore(CONNECTIONS);
+        this.workers = Executors.newFixedThreadPool(CONNECTIONS);
+    }
+
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+
+    /**
+     * Tar emot anslutningar tills shutdown anropas. Högst --connections anslutningar hanteras samtidigt,
+     * övriga får vänta i kön tills en anslutning stängs.
+     */
+    public void serve() throws IOException, InterruptedException {
+        try {
+            while (running) {
+                connections.acquire();
+                final Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketException e) {
+                    connections.release();
+                    if (running) {
+                        throw e;
+                    }
+                    break;
+                }
+                workers.execute(() -> {
+                    try {
+                        handle(socket);
+                    } finally {
+                        connections.release();
+                    }
+                });
+            }
+        } finally {
+            workers.shutdown();
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+            keyStore.close();
+        }
+    }
+
+
+    /**
+     * Slutar ta emot anslutningar. Förfrågningar som redan tagits emot besvaras innan anslutningarna stängs.
+     */
+    public void shutdown() {
+        running = false;
+        try {
+            server.close();
+        } catch (IOException e) {
+            // porten stängs ändå när processen avslutas
+        }
+    }
+
+
+    private void handle(Socket socket) {
+        try (Socket connection = socket) {
+            connection.setTcpNoDelay(true);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            while (running) {
+                final int OPERATION = nextOperation(connection, input);
+                if (OPERATION < 0) {
+                    break;
+                }
+                connection.setSoTimeout(READ_TIMEOUT);
+                if (OPERATION == SHUTDOWN) {
+                    reply(output, OK, new byte[0], 0);
+                    shutdown();
+                    break;
+                }
+                final int ID = input.readInt();
+                final int RADIX = input.readInt();
+                final int BLOCK_SIZE = input.readInt();
+                final int LENGTH = input.readInt();
+                if (LENGTH < 0 || LENGTH > maxPayload) {
+                    error(output, "Meddelandet får vara högst " + maxPayload + " byte");
+                    break;
+                }
+                byte[] payload = new byte[LENGTH + keyStore.getDimension()];
+                input.readFully(payload, 0, LENGTH);
+                requests.incrementAndGet();
+                try {
+                    if (OPERATION == ENCRYPT) {
+                        reply(output, OK, payload, encrypt(kernel(ID, RADIX, BLOCK_SIZE, "key"), payload, LENGTH));
+                    } else if (OPERATION == DECRYPT) {
+                        reply(output, OK, payload, decrypt(kernel(ID, RADIX, BLOCK_SIZE, "inverse"), payload, LENGTH));
+                    } else {
+                        error(output, "Okänd operation: " + OPERATION);
+                    }
+                } catch (IllegalArgumentException | IndexOutOfBoundsException | UncheckedIOException e) {
+                    error(output, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            failures.incrementAndGet();
+        }
+    }
+
+
+    /**
+     * Väntar på nästa förfrågan i högst MAX_IDLE millisekunder. Väntan avbryts var IDLE_TIMEOUT
+     * millisekund så att en anslutning som väntar stängs när tjänsten stängs.
+     *
+     * @return operationen eller -1 om anslutningen ska stängas
+     */
+    private int nextOperation(Socket connection, DataInputStream input) throws IOException {
+        connection.setSoTimeout(IDLE_TIMEOUT);
+        final long DEADLINE = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_IDLE);
+        while (running && System.nanoTime() - DEADLINE < 0) {
+            try {
+                return input.read();
+            } catch (SocketTimeoutException e) {
+                // kontrollera running och tidsgränsen igen
+            }
+        }
+        return -1;
+    }
+
+
+    private HillKernel kernel(int id, int radix, int blockSize, String role) {
+        if (radix != keyStore.getRadix() || blockSize != keyStore.getDimension()) {
+            throw new IllegalArgumentException("Nycklarna har radix " + keyStore.getRadix() + " och blockstorlek "
+                    + keyStore.getDimension());
+        }
+        return HillKeyCache.getInstance().get(keyStoreFile,
+                HillKeyCache.variantOf(role + "#" + id, radix, blockSize, options), () -> {
+                    try {
+                        int[][] key = role.equals("key") ? keyStore.getKey(id) : keyStore.getInverseKey(id);
+                        return HillKernel.valueOf(key, radix, kernelType, codebookLimit);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+
+    /**
+     * Krypterar meddelandet i buffer på plats. Buffern måste ha plats för ett block utfyllnad.
+     * Symbolerna kontrolleras efter utfyllnaden så att även utfyllnaden måste vara mindre än radix.
+     *
+     * @return längden efter utfyllnad
+     */
+    static int encrypt(HillKernel kernel, byte[] buffer, int length) {
+        final int LENGTH = HillPadding.pad(buffer, length, kernel.getDimension());
+        kernel.checkSymbols(buffer, 0, LENGTH);
+        kernel.transform(buffer, 0, buffer, 0, LENGTH / kernel.getDimension());
+        return LENGTH;
+    }
+
+
+    /**
+     * Dekrypterar meddelandet i buffer på plats.
+     *
+     * @return längden utan utfyllnad
+     */
+    static int decrypt(HillKernel kernel, byte[] buffer, int length) {
+        final int BLOCK_SIZE = kernel.getDimension();
+        if (length == 0 || length % BLOCK_SIZE != 0) {
+            throw new IllegalArgumentException("Meddelandets längd måste vara en multipel av blockstorleken");
+        }
+        kernel.checkSymbols(buffer, 0, length);
+        kernel.transform(buffer, 0, buffer, 0, length / BLOCK_SIZE);
+        return length - HillPadding.count(buffer, length - BLOCK_SIZE, BLOCK_SIZE);
+    }
+
+
+    private void error(DataOutputStream output, String message) throws IOException {
+        failures.incrementAndGet();
+        byte[] text = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+        reply(output, ERROR, text, text.length);
+    }
+
+
+    private static void reply(DataOutputStream output, byte status, byte[] data, int length) throws IOException {
+        output.writeByte(status);
+        output.writeInt(length);
+        output.write(data, 0, length);
+        output.flush();
+    }
+
+
+    @Override
+    public String toString() {
+        return requests.get() + " förfrågningar, " + failures.get() + " fel, " + HillKeyCache.getInstance();
+    }
+
+
+    /**
+     * Skickar en förfrågan till en tjänst på 127.0.0.1.
+     *
+     * @param port tjänstens port
+     * @param operation ENCRYPT, DECRYPT eller SHUTDOWN
+     * @param id nyckelns id
+     * @param radix modulovärdet
+     * @param blockSize storleken på ett block
+     * @param payload meddelandet
+     * @return resultatet
+     * @throws IOException om tjänsten svarar med ett fel eller inte kan nås
+     */
+    public static byte[] request(int port, byte operation, int id, int radix, int blockSize, byte[] payload)
+            throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            output.writeByte(operation);
+            if (operation != SHUTDOWN) {
+                output.writeInt(id);
+                output.writeInt(radix);
+                output.writeInt(blockSize);
+                output.writeInt(payload.length);
+                output.write(payload);
+            }
+            output.flush();
+            final byte STATUS = input.readByte();
+            byte[] result = new byte[input.readInt()];
+            input.readFully(result);
+            if (STATUS != OK) {
+                throw new IOException(new String(result, StandardCharsets.UTF_8));
+            }
+            return result;
+        }
+    }
+
+
+    public static void main(String[] args) {
+        System.out.println("HILLDAEMON");
+        HillOptions options = new HillOptions(args);
+        args = options.getArguments();
+        if (options.has("shutdown") && args.length == 0) {
+            send(options, SHUTDOWN, args);
+        } else if ((options.has("encrypt") || options.has("decrypt")) && args.length == 4) {
+            send(options, options.has("encrypt") ? ENCRYPT : DECRYPT, args);
+        } else if (args.length != 1) {
+            System.out.println("Fel antal argument.");
+            System.out.println("mata in: <keystore>");
+            System.out.println("flaggor: --port=<port> --connections=<n> --max-payload=<byte>");
+            System.out.println("         --kernel=<auto|scalar|table|lanes|gemm|codebook> [--codebook=<block>]");
+            System.out.println("     el: --encrypt|--decrypt --id=<n> [--port=<port>] <radix> <blocksize> <infile> <outfile>");
+            System.out.println("     el: --shutdown [--port=<port>]");
+            System.out.println("Försök igen");
+        } else {
+            try {
+                HillDaemon daemon = new HillDaemon(args[0], options);
+                final Thread MAIN = Thread.currentThread();
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    daemon.shutdown();
+                    try {
+                        MAIN.join(10000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+                System.out.println("Lyssnar på 127.0.0.1:" + daemon.getPort() + ", " + daemon.keyStore.getCount()
+                        + " nycklar med radix " + daemon.keyStore.getRadix() + " och blockstorlek "
+                        + daemon.keyStore.getDimension());
+                daemon.serve();
+                System.out.println(daemon);
+            } catch (IOException | UncheckedIOException | IllegalArgumentException e) {
+                System.out.println("Tjänsten kunde inte startas: " + e.getMessage());
+            } catch (InterruptedException e) {
+                System.out.println("Tjänsten avbröts");
+            }
+        }
+        System.out.println("Programmet avslutas");
+    }
+
+
+    private static void send(HillOptions options, byte operation, String[] args) {
+        final int PORT = options.getInt("port", DEFAULT_PORT);
+        try {
+            if (operation == SHUTDOWN) {
+                request(PORT, SHUTDOWN, 0, 0, 0, new byte[0]);
+                System.out.println("Tjänsten stängs");
+            } else {
+                byte[] result = request(PORT, operation, Integer.parseInt(options.get("id", "0")),
+                        Integer.parseInt(args[0]), Integer.parseInt(args[1]), Files.readAllBytes(Paths.get(args[2])));
+                Files.write(Paths.get(args[3]), result);
+                System.out.println(result.length + " byte skrivna till " + args[3]);
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("--id, <radix> och <blocksize> måste vara heltal");
+        } catch (IOException e) {
+            System.out.println("Förfrågan misslyckades: " + e.getMessage());
+        }
+    }
+}
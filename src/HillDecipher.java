@@ -1,12 +1,11 @@
-import org.jscience.mathematics.number.LargeInteger;
 import org.jscience.mathematics.number.Rational;
 import org.jscience.mathematics.vector.DenseMatrix;
-import org.jscience.mathematics.vector.DenseVector;
 import org.jscience.mathematics.vector.DimensionException;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Paths;
 
 /**
@@ -17,9 +16,9 @@ import java.nio.file.Paths;
  */
 public class HillDecipher {
 
-    private final DenseMatrix<Rational> cipherText;
-    private final DenseMatrix<Rational> key;
-    private final DenseMatrix<Rational> plainText;
+    private byte[] cipherText;
+    private HillKernel key;
+    private byte[] plainText;
 
     /**
      * @param radix modulovärdet
@@ -29,101 +28,280 @@ public class HillDecipher {
      * @param cipherFile filen med texten som ska dekrypteras
      */
     public HillDecipher(int radix, int blockSize, String keyFile, String plainFile, String cipherFile) {
-        byte[] cipherText = cipherTextBlockSequence(cipherFile);
-        this.cipherText = getCipherTextMatrix(cipherText, blockSize, radix);
-        this.key = getKeyFrom(keyFile);
-        this.plainText = decryptCipher(radix);
-        int padding = removePadding(blockSize);
-        writePlainToFile(padding, plainFile);
+        this(radix, blockSize, keyFile, plainFile, cipherFile, new HillOptions(new String[0]));
     }
 
-    private int removePadding(int blockSize) {
-        DenseVector<Rational> column = this.plainText.getColumn(this.plainText.getNumberOfColumns()-1);
-        final int SIZE = column.getDimension();
-        long padding = column.get(SIZE-1).getDividend().longValue();
-        if(padding > blockSize){
-            System.out.println();
-            System.out.println("OBS! Innehållet i cipherfilen");
-            System.out.println("krypterades ej med dekrypteringsnyckelns invers.");
+
+    /**
+     * @param radix modulovärdet
+     * @param blockSize storleken på ett block
+     * @param keyFile filen med nyckeln
+     * @param plainFile filen att skriva den dekrypterade texten till
+     * @param cipherFile filen med texten som ska dekrypteras
+     * @param options flaggor, --stream dekrypterar filen i delar om --chunk byte, --mmap dekrypterar
+     *                via minnesmappade filer och --pipeline överlappar läsning, dekryptering och skrivning
+     *                med --buffers buffrar om --chunk byte. --offset=<byte> [--length=<byte>] och
+     *                --tail=<byte> dekrypterar bara en del av klartexten. --stats skriver ut tid och MB/s
+     *                per fas
+     */
+    public HillDecipher(int radix, int blockSize, String keyFile, String plainFile, String cipherFile,
+                        HillOptions options) {
+        final HillStats STATS = new HillStats(radix, blockSize);
+        HillStats.Phase phase;
+        if (options.has("offset") || options.has("length") || options.has("tail")) {
+            phase = STATS.begin(HillStats.KEY);
+            this.key = loadKernel(keyFile, radix, blockSize, options);
+            phase.end(0);
+            phase = STATS.begin("range");
+            phase.end(rangeDecipher(blockSize, plainFile, cipherFile, options));
+        } else if (options.has("mmap") || options.has("pipeline")) {
+            phase = STATS.begin(HillStats.KEY);
+            this.key = loadKernel(keyFile, radix, blockSize, options);
+            phase.end(0);
+            phase = STATS.begin(options.has("pipeline") ? "pipeline" : "mmap");
+            phase.end(channelDecipher(blockSize, plainFile, cipherFile, options));
+        } else if (options.has("stream")) {
+            phase = STATS.begin(HillStats.KEY);
+            this.key = loadKernel(keyFile, radix, blockSize, options);
+            phase.end(0);
+            phase = STATS.begin("stream");
+            phase.end(streamDecipher(blockSize, plainFile, cipherFile,
+                    options.getInt("chunk", HillStream.DEFAULT_CHUNK_SIZE)));
+        } else {
+            phase = STATS.begin(HillStats.READ);
+            this.cipherText = cipherTextBlockSequence(cipherFile);
+            phase.end(this.cipherText.length);
+            phase = STATS.begin(HillStats.CHECK);
+            checkCipherText(blockSize, radix);
+            phase.end(this.cipherText.length);
+            phase = STATS.begin(HillStats.KEY);
+            this.key = loadKernel(keyFile, radix, blockSize, options);
+            phase.end(0);
+            phase = STATS.begin(HillStats.TRANSFORM);
+            this.plainText = decryptCipher(blockSize);
+            phase.end(this.plainText.length);
+            phase = STATS.begin(HillStats.WRITE);
+            int padding = removePadding(blockSize);
+            writePlainToFile(padding, plainFile);
+            phase.end(this.plainText.length - padding);
+        }
+        if (options.has("stats")) {
+            STATS.print(System.out);
+        }
+    }
+
+
+    /**
+     * Dekrypterar bara de block som täcker det valda intervallet, plus det sista blocket för att hitta
+     * utfyllnaden, och skriver intervallets klartext till plainFile.
+     *
+     * @return antal skrivna byte
+     */
+    private long rangeDecipher(int blockSize, String plainFile, String cipherFile, HillOptions options) {
+        long written = 0;
+        try (HillRandomAccess file = new HillRandomAccess(this.key, cipherFile)) {
+            warnIfNotPadding(file.getPaddingValue(), blockSize);
+            final long OFFSET_OPTION = Long.parseLong(options.get("offset", "0"));
+            final long LENGTH_OPTION = Long.parseLong(options.get("length", "0"));
+            final long TAIL = Long.parseLong(options.get("tail", "0"));
+            if (OFFSET_OPTION < 0 || LENGTH_OPTION < 0 || TAIL < 0) {
+                System.out.println("--offset, --length och --tail måste vara större än eller lika med 0.");
+                System.out.println("Dekryptering avbruten. Programmet avslutas.");
+                System.exit(0);
+            }
+            final long OFFSET = options.has("tail") ? Math.max(0, file.length() - TAIL) : OFFSET_OPTION;
+            final long LENGTH = options.has("length") && !options.has("tail") ? LENGTH_OPTION : file.length() - OFFSET;
+            if (OFFSET > file.length()) {
+                System.out.println("--offset=" + OFFSET + " ligger efter klartextens slut (" + file.length() + " byte).");
+                System.out.println("Dekryptering avbruten. Programmet avslutas.");
+                System.exit(0);
+            }
+            try (FileOutputStream fos = new FileOutputStream(plainFile)){
+                written = file.transferTo(OFFSET, LENGTH, fos);
+            } catch (IllegalArgumentException e) {
+                new File(plainFile).delete();
+                System.out.println("All input måste ha ett värde som är mindre än radix.");
+                System.out.println("Dekryptering avbruten. programmet avslutas");
+                System.exit(0);
+            } catch (FileNotFoundException e) {
+                System.out.println("Kontrollera skrivrättigheter för " + plainFile + " och försök igen.");
+                System.out.println("Dekryptering avbruten. Programmet avslutas.");
+                System.exit(0);
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("--offset, --length och --tail måste vara heltal: " + e.getMessage());
+            System.out.println("Dekryptering avbruten. Programmet avslutas.");
+            System.exit(0);
+        } catch (DimensionException e) {
+            System.out.println("Det här meddelandet krypterades inte med dekrypteringsnyckelns invers.");
+            System.out.println("Dekryptering avbryts. Programmet avslutas");
+            System.exit(0);
+        } catch (IllegalArgumentException e) {
+            System.out.println("All input måste ha ett värde som är mindre än radix.");
+            System.out.println("Dekryptering avbruten. programmet avslutas");
+            System.exit(0);
+        } catch (NoSuchFileException e) {
+            System.out.println("Filen " + e.getFile() + " gick inte att öppna.");
+            System.out.println("Kontrollera att filen finns och försök igen.");
             System.out.println();
+            System.out.println("Programmet avslutas");
+            System.exit(0);
+        } catch (IOException e) {
+            System.out.println("Något gick fel vid dekryptering av " + cipherFile + " till " + plainFile);
+            System.out.println("Dekryptering avbruten. Programmet avslutas.");
+            System.exit(0);
         }
-        int paddingCounter = 1;
-        for(int i = SIZE-2; i >= 0; i--){
-            if(column.get(i).getDividend().compareTo(padding) == 0){
-                paddingCounter++;
+        return written;
+    }
+
+
+    private long channelDecipher(int blockSize, String plainFile, String cipherFile, HillOptions options) {
+        long size = 0;
+        try {
+            size = Files.size(Paths.get(cipherFile));
+            if(size == 0){
+                System.out.println("Filen innehåller ingen data att dekryptera.");
+                System.out.println();
+                System.out.println("Dekryptering avbruten. programmet avslutas");
+                System.exit(0);
+            }
+            if (options.has("pipeline")) {
+                warnIfNotPadding(HillPipeline.decrypt(this.key, cipherFile, plainFile,
+                        options.getInt("chunk", HillPipeline.DEFAULT_CHUNK_SIZE),
+                        options.getInt("buffers", HillPipeline.DEFAULT_BUFFERS)), blockSize);
             } else {
-                break;
+                warnIfNotPadding(HillMapped.decrypt(this.key, cipherFile, plainFile), blockSize);
+            }
+        } catch (DimensionException e) {
+            new File(plainFile).delete();
+            System.out.println("Det här meddelandet krypterades inte med dekrypteringsnyckelns invers.");
+            System.out.println("Dekryptering avbryts. Programmet avslutas");
+            System.exit(0);
+        } catch (IllegalArgumentException e) {
+            new File(plainFile).delete();
+            System.out.println("All input måste ha ett värde som är mindre än radix.");
+            System.out.println("Dekryptering avbruten. programmet avslutas");
+            System.exit(0);
+        } catch (NoSuchFileException e) {
+            System.out.println("Filen " + e.getFile() + " gick inte att öppna.");
+            System.out.println("Kontrollera att filen finns och försök igen.");
+            System.out.println();
+            System.out.println("Programmet avslutas");
+            System.exit(0);
+        } catch (IOException e) {
+            System.out.println("Något gick fel vid dekryptering av " + cipherFile + " till " + plainFile);
+            System.out.println("Dekryptering avbruten. Programmet avslutas.");
+            System.exit(0);
+        }
+        return size;
+    }
+
+
+    private long streamDecipher(int blockSize, String plainFile, String cipherFile, int chunkSize) {
+        HillStream stream = new HillStream(this.key, chunkSize);
+        try (FileInputStream fis = new FileInputStream(cipherFile)){
+            if(fis.getChannel().size() == 0){
+                System.out.println("Filen innehåller ingen data att dekryptera.");
+                System.out.println();
+                System.out.println("Dekryptering avbruten. programmet avslutas");
+                System.exit(0);
+            }
+            try (FileOutputStream fos = new FileOutputStream(plainFile)){
+                stream.decrypt(fis, fos);
+            } catch (DimensionException e) {
+                new File(plainFile).delete();
+                System.out.println("Det här meddelandet krypterades inte med dekrypteringsnyckelns invers.");
+                System.out.println("Dekryptering avbryts. Programmet avslutas");
+                System.exit(0);
+            } catch (IllegalArgumentException e) {
+                new File(plainFile).delete();
+                System.out.println("All input måste ha ett värde som är mindre än radix.");
+                System.out.println("Dekryptering avbruten. programmet avslutas");
+                System.exit(0);
+            } catch (FileNotFoundException e) {
+                System.out.println("Kontrollera skrivrättigheter för " + plainFile + " och försök igen.");
+                System.out.println("Dekryptering avbruten. Programmet avslutas.");
+                System.exit(0);
             }
+            warnIfNotPadding(stream.getPaddingValue(), blockSize);
+        } catch (FileNotFoundException e) {
+            System.out.println("Filen " + cipherFile + " gick inte att öppna.");
+            System.out.println("Kontrollera att filen finns och försök igen.");
+            System.out.println();
+            System.out.println("Programmet avslutas");
+            System.exit(0);
+        } catch (IOException e) {
+            System.out.println("Något gick fel vid dekryptering av " + cipherFile + " till " + plainFile);
+            System.out.println("Dekryptering avbruten. Programmet avslutas.");
+            System.exit(0);
         }
-        return paddingCounter;
+        return stream.getBytesRead();
     }
 
+    private int removePadding(int blockSize) {
+        final int LAST_BLOCK = this.plainText.length - blockSize;
+        warnIfNotPadding(this.plainText[this.plainText.length-1] & 0xFF, blockSize);
+        return HillPadding.count(this.plainText, LAST_BLOCK, blockSize);
+    }
 
 
-    private DenseMatrix<Rational> decryptCipher(int radix){
-        final int COLUMNS = this.cipherText.getNumberOfColumns();
-        @SuppressWarnings("unchecked")
-        DenseVector<Rational>[] columns = new DenseVector[COLUMNS];
-        for (int i = 0; i < COLUMNS; i++){
-            columns[i] = decrypt(radix, this.cipherText.getColumn(i));
+    private void warnIfNotPadding(int padding, int blockSize) {
+        if(padding > blockSize){
+            System.out.println();
+            System.out.println("OBS! Innehållet i cipherfilen");
+            System.out.println("krypterades ej med dekrypteringsnyckelns invers.");
+            System.out.println();
         }
-        return collect(columns);
     }
 
 
-    private DenseMatrix<Rational> collect(DenseVector<Rational>[] allColumns){
-        Rational[][] matrix = new Rational[this.cipherText.getNumberOfRows()][this.cipherText.getNumberOfColumns()];
-        for(int i = 0; i < allColumns.length; i++){
-            for(int j = 0; j < allColumns[i].getDimension(); j++){
-                matrix[j][i] = allColumns[i].get(j);
-            }
-        }
-        return DenseMatrix.valueOf(matrix);
+
+    private byte[] decryptCipher(int blockSize){
+        final byte[] PLAIN = new byte[this.cipherText.length];
+        this.key.transform(this.cipherText, 0, PLAIN, 0, this.cipherText.length / blockSize);
+        return PLAIN;
     }
 
 
-    private DenseVector<Rational> decrypt(int radix, DenseVector<Rational> column){
-        Rational[] tempVector = null;
-        try{
-            DenseVector<Rational> cipherKeyProduct = this.key.times(column);
+    private HillKernel loadKernel(String keyFile, int radix, int blockSize, HillOptions options) {
+        return HillKeyCache.getInstance().get(keyFile, HillKeyCache.variantOf("inverse", radix, blockSize, options),
+                () -> createKernel(getKeyFrom(keyFile, radix), radix, blockSize, options));
+    }
 
-            final int DIMENSIONS = cipherKeyProduct.getDimension();
-            tempVector = new Rational[DIMENSIONS];
 
-            for(int i = 0; i < DIMENSIONS; i++){
-                tempVector[i] = Rational.valueOf(cipherKeyProduct.get(i).getDividend().mod(LargeInteger.valueOf(radix)),
-                        LargeInteger.ONE);
+    private HillKernel createKernel(int[][] key, int radix, int blockSize, HillOptions options){
+        HillKernel kernel = null;
+        try{
+            kernel = HillKernel.valueOf(HillKernel.keyOf(key, radix, blockSize), radix,
+                    options.get("kernel", HillKernel.AUTO), options.getInt("codebook", HillCodebookKernel.DEFAULT_LIMIT));
+            if (kernel instanceof HillCodebookKernel) {
+                System.out.println(kernel);
             }
+            kernel = HillParallelKernel.valueOf(kernel,
+                    options.getInt("threads", 1), options.getInt("split", HillParallelKernel.DEFAULT_MIN_BLOCKS));
         } catch (DimensionException e) {
             System.out.println("Nyckeln måste ha dimensionen nxn och blockstorleken måste vara nx1");
             System.out.println("Försök igen.");
             System.out.println();
             System.out.println("Dekryptering avbryts. Programmet avslutas");
             System.exit(0);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Tillåtna värden är --kernel=auto, --kernel=scalar, --kernel=table, --kernel=lanes, --kernel=gemm och --kernel=codebook");
+            System.out.println();
+            System.out.println("Dekryptering avbryts. Programmet avslutas");
+            System.exit(0);
         }
-        return DenseVector.valueOf(tempVector);
+        return kernel;
     }
 
 
 
     private void writePlainToFile(int padding, String plainFile) {
-        final int ROWS = this.plainText.getNumberOfRows();
-        final int COLUMNS = this.plainText.getNumberOfColumns();
-        final int SIZE = COLUMNS * ROWS - padding;
-        final byte[] PLAIN = new byte[SIZE];
-        int index = 0;
-        for (int i = 0; i < COLUMNS; i++) {
-            for (int j = 0; j < ROWS; j++) {
-                if (index >= PLAIN.length) {
-                    break;
-                } else {
-                    PLAIN[index++] = this.plainText.get(j, i).getDividend().byteValue();
-                }
-            }
-        }
+        final int SIZE = this.plainText.length - padding;
         try (FileOutputStream fos = new FileOutputStream(plainFile)){
             DataOutputStream output = new DataOutputStream(fos);
-            output.write(PLAIN);
+            output.write(this.plainText, 0, SIZE);
             output.close();
         } catch (FileNotFoundException e) {
             System.out.println("Kontrollera skrivrättigheter för " + plainFile + " och försök igen.");
@@ -137,10 +315,10 @@ public class HillDecipher {
     }
 
 
-    private DenseMatrix<Rational> getKeyFrom(String keyFile) {
-        String key = null;
+    private int[][] getKeyFrom(String keyFile, int radix) {
+        byte[] key = null;
         try {
-            key = new String(Files.readAllBytes(Paths.get(keyFile)));
+            key = Files.readAllBytes(Paths.get(keyFile));
         } catch (OutOfMemoryError e){
             System.out.println("Inte tillräckligt med minne.");
             System.out.println("Försök igen.");
@@ -164,7 +342,30 @@ public class HillDecipher {
             System.out.println("Deryptering avbryts. Programmet avslutas");
             System.exit(0);
         }
-        return createKeyMatrix(key);
+        if (HillKeyFile.isBinary(key)) {
+            return getBinaryKey(key, keyFile, radix);
+        }
+        return HillKernel.keyOf(createKeyMatrix(new String(key)), radix);
+    }
+
+
+    private int[][] getBinaryKey(byte[] data, String keyFile, int radix) {
+        HillKeyFile keys = null;
+        try {
+            keys = HillKeyFile.valueOf(data);
+        } catch (IOException e) {
+            System.out.println(e.getMessage() + ": " + keyFile);
+            System.out.println();
+            System.out.println("Dekryptering avbryts. Programmet avslutas");
+            System.exit(0);
+        }
+        if (keys.getRadix() != radix) {
+            System.out.println("Nyckeln i " + keyFile + " är skapad för radix " + keys.getRadix());
+            System.out.println();
+            System.out.println("Dekryptering avbryts. Programmet avslutas");
+            System.exit(0);
+        }
+        return keys.getInverseKey();
     }
 
     private DenseMatrix<Rational> createKeyMatrix(String key) {
@@ -205,32 +406,19 @@ public class HillDecipher {
     }
 
 
-    private DenseMatrix<Rational> getCipherTextMatrix(byte[] cipherText, int blockSize, int radix) {
-        if(cipherText.length % blockSize != 0){
+    private void checkCipherText(int blockSize, int radix) {
+        if(this.cipherText.length % blockSize != 0){
             System.out.println("Det här meddelandet krypterades inte med dekrypteringsnyckelns invers.");
             System.out.println("Dekryptering avbryts. Programmet avslutas");
             System.exit(0);
         }
-        Rational[][] plainMatrix = new Rational[blockSize][cipherText.length/blockSize];
-        final int ROWS = blockSize;
-        final int COLUMNS = cipherText.length/blockSize;
-        int offset = 0;
-        LargeInteger value;
-        for (int i = 0; i < COLUMNS; i++){
-            for (int j = 0; j < ROWS; j++){
-                value = LargeInteger.valueOf(cipherText, offset++, 1);
-                if(value.isNegative()){
-                    value = LargeInteger.valueOf(value.longValue() & 0xFF);
-                }
-                if(radix <= value.longValue()){
-                    System.out.println("All input måste ha ett värde som är mindre än radix.");
-                    System.out.println("Dekryptering avbruten. programmet avslutas");
-                    System.exit(0);
-                }
-                plainMatrix[j][i] = Rational.valueOf(value, LargeInteger.ONE);
+        for (byte b : this.cipherText) {
+            if(radix <= (b & 0xFF)){
+                System.out.println("All input måste ha ett värde som är mindre än radix.");
+                System.out.println("Dekryptering avbruten. programmet avslutas");
+                System.exit(0);
             }
         }
-        return DenseMatrix.valueOf(plainMatrix);
     }
 
     private byte[] cipherTextBlockSequence(String fileName){
@@ -245,9 +433,7 @@ public class HillDecipher {
             }
             plainText = new byte[FILESIZE];
             DataInputStream input  = new DataInputStream(fis);
-            for(int i = 0; i < plainText.length; i++) {
-                plainText[i] = input.readByte();
-            }
+            input.readFully(plainText);
         } catch (FileNotFoundException e) {
             System.out.println("Filen " + fileName + " gick inte att öppna.");
             System.out.println("Kontrollera att filen finns och försök igen.");
@@ -274,9 +460,15 @@ public class HillDecipher {
     public static void main(String[] args){
 
         System.out.println("HILLDECIPHER");
+        HillOptions options = new HillOptions(args);
+        args = options.getArguments();
         if(args.length != 5) {
             System.out.println("Fel antal argument.");
             System.out.println("mata in: <radix> <blocksize> <keyfile> <plainfile> <cipherfile>");
+            System.out.println("flaggor: --stream [--chunk=<byte>] | --mmap | --pipeline [--chunk=<byte>] [--buffers=<n>]");
+            System.out.println("         --offset=<byte> [--length=<byte>] | --tail=<byte>");
+            System.out.println("         --threads=<n> [--split=<block>] --stats");
+            System.out.println("         --kernel=<auto|scalar|table|lanes|gemm|codebook> [--codebook=<block>]");
             System.out.println("Dekryptering avbruten försök igen");
         }  else {
             int radix;
@@ -297,7 +489,7 @@ public class HillDecipher {
                         System.out.println("Programmet anropades med <blocksize> = " + args[1]);
                         System.out.println("Dekryptering avbruten försök igen");
                     } else {
-                        new HillDecipher(radix, blockSize, keyFile, plainFile, cipherFile);
+                        new HillDecipher(radix, blockSize, keyFile, plainFile, cipherFile, options);
                         System.out.println("Dekryptering genomförd");
                     }
 
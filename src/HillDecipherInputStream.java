@@ -0,0 +1,180 @@
+import org.jscience.mathematics.vector.DimensionException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * Klassen läser chiffertext från en underliggande ström och returnerar klartexten. Chiffertexten
+ * läses i en buffer av hela block som dekrypteras på plats. Det sista dekrypterade blocket hålls
+ * kvar tills nästa block eller slutet av strömmen har lästs, så att utfyllnaden kan tas bort.
+ *
+ * En kärna skapas t.ex. med HillKernel.valueOf(HillKeyFile.readKey(keyFile, radix, true), radix).
+ */
+public class HillDecipherInputStream extends FilterInputStream {
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final HillKernel kernel;
+    private final int BLOCKSIZE;
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+    private int end;
+    private boolean held;
+    private boolean eof;
+    private long bytesWritten;
+    private int paddingValue;
+
+
+    public HillDecipherInputStream(InputStream in, HillKernel kernel) {
+        this(in, kernel, DEFAULT_BUFFER_SIZE);
+    }
+
+
+    /**
+     *
+     * @param in strömmen som chiffertexten läses från
+     * @param kernel kärnan som dekrypterar blocken, alltså skapad från den inversa nyckeln
+     * @param bufferSize ungefärlig storlek på buffern, avrundas nedåt till hela block och är minst två block
+     */
+    public HillDecipherInputStream(InputStream in, HillKernel kernel, int bufferSize) {
+        super(in);
+        this.kernel = kernel;
+        this.BLOCKSIZE = kernel.getDimension();
+        this.buffer = new byte[Math.max(2, bufferSize / BLOCKSIZE) * BLOCKSIZE];
+    }
+
+
+    /**
+     * @throws DimensionException om strömmens längd inte är en multipel av blockstorleken
+     * @throws IllegalArgumentException om en symbol är större än eller lika med radix
+     */
+    @Override
+    public int read() throws IOException {
+        if (this.position == this.limit && !fill()) {
+            return -1;
+        }
+        return this.buffer[this.position++] & 0xFF;
+    }
+
+
+    /**
+     * @throws DimensionException om strömmens längd inte är en multipel av blockstorleken
+     * @throws IllegalArgumentException om en symbol är större än eller lika med radix
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (this.position == this.limit && !fill()) {
+            return -1;
+        }
+        final int SIZE = Math.min(len, this.limit - this.position);
+        System.arraycopy(this.buffer, this.position, b, off, SIZE);
+        this.position += SIZE;
+        return SIZE;
+    }
+
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && (this.position < this.limit || fill())) {
+            final int SIZE = (int) Math.min(n - skipped, this.limit - this.position);
+            this.position += SIZE;
+            skipped += SIZE;
+        }
+        return skipped;
+    }
+
+
+    @Override
+    public int available() {
+        return this.limit - this.position;
+    }
+
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset stöds inte");
+    }
+
+
+    /**
+     * @return antal dekrypterade symboler utan utfyllnad som har lästs in i buffern
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+
+    /**
+     * @return värdet på den sista dekrypterade symbolen, det vill säga den angivna utfyllnaden, eller 0
+     * om slutet av strömmen inte har nåtts
+     */
+    public int getPaddingValue() {
+        return paddingValue;
+    }
+
+
+    /**
+     * Läser och dekrypterar tills minst en symbol kan returneras eller strömmen är slut. Det kvarhållna
+     * blocket och ofullständiga block flyttas först till början av buffern.
+     *
+     * @return false om det inte finns fler symboler
+     */
+    private boolean fill() throws IOException {
+        while (!this.eof) {
+            final int HELD = this.held ? BLOCKSIZE : 0;
+            System.arraycopy(this.buffer, this.limit, this.buffer, 0, this.end - this.limit);
+            this.end -= this.limit;
+            this.position = 0;
+            this.limit = 0;
+            final int READ = this.in.read(this.buffer, this.end, this.buffer.length - this.end);
+            if (READ < 0) {
+                this.eof = true;
+                if ((this.end - HELD) % BLOCKSIZE != 0) {
+                    throw new DimensionException("Längden är inte en multipel av blockstorleken " + BLOCKSIZE);
+                }
+            } else {
+                this.end += READ;
+            }
+            final int BLOCKS = (this.end - HELD) / BLOCKSIZE;
+            this.kernel.checkSymbols(this.buffer, HELD, BLOCKS * BLOCKSIZE);
+            this.kernel.transform(this.buffer, HELD, this.buffer, HELD, BLOCKS);
+            final int DECRYPTED = HELD + BLOCKS * BLOCKSIZE;
+            if (this.eof) {
+                if (DECRYPTED > 0) {
+                    this.paddingValue = this.buffer[DECRYPTED - 1] & 0xFF;
+                    this.limit = DECRYPTED - HillPadding.count(this.buffer, DECRYPTED - BLOCKSIZE, BLOCKSIZE);
+                }
+                this.end = this.limit;
+                this.held = false;
+            } else if (DECRYPTED > 0) {
+                this.limit = DECRYPTED - BLOCKSIZE;
+                this.held = true;
+            }
+            this.bytesWritten += this.limit;
+            if (this.limit > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
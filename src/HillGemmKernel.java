@@ -0,0 +1,46 @@
+/**
+ * Klassen behandlar meddelandet som en nxm matris P där varje block är en kolumn och räknar ut key * P
+ * som en heltals-GEMM i rutor om TILE kolumner. Produkten byggs upp med en rad av P i taget: för varje j
+ * adderas key[i][j] gånger rad j till ackumulatorn för varje utrad i. Rutan och ackumulatorerna ryms
+ * tillsammans i L1-cachen (högst 2 * 8 * TILE * 4 byte). Transponering och reduktion sker i
+ * HillTiledKernel.
+ */
+public class HillGemmKernel extends HillTiledKernel {
+    public static final int TILE = 256;
+
+
+    /**
+     *
+     * @param key nyckeln som en nxn matris
+     * @param radix modulovärdet, högst 256
+     */
+    public HillGemmKernel(int[][] key, int radix) {
+        super(key, radix, TILE);
+    }
+
+
+    /**
+     * En rad av tile i taget: accumulator[i] += key[i][j] gånger tile[j] för varje utrad i.
+     */
+    @Override
+    protected void multiply(int[][] tile, int[][] accumulator) {
+        final int[] first = tile[0];
+        for (int i = 0; i < DIMENSION; i++) {
+            final int K = key[i * DIMENSION];
+            final int[] row = accumulator[i];
+            for (int c = 0; c < TILE; c++) {
+                row[c] = K * first[c];
+            }
+        }
+        for (int j = 1; j < DIMENSION; j++) {
+            final int[] source = tile[j];
+            for (int i = 0; i < DIMENSION; i++) {
+                final int K = key[i * DIMENSION + j];
+                final int[] row = accumulator[i];
+                for (int c = 0; c < TILE; c++) {
+                    row[c] += K * source[c];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+import org.jscience.mathematics.number.LargeInteger;
+import org.jscience.mathematics.number.Rational;
+import org.jscience.mathematics.vector.DenseMatrix;
+import org.jscience.mathematics.vector.DimensionException;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Klassen är basen för kärnorna som krypterar och dekrypterar hela block med primitiva heltal.
+ * Alla kärnor ger samma resultat som beräkningen över DenseMatrix<Rational>.
+ */
+public abstract class HillKernel {
+    public static final String AUTO = "auto";
+    public static final String SCALAR = "scalar";
+    public static final String TABLE = "table";
+    public static final String LANES = "lanes";
+    public static final String GEMM = "gemm";
+    public static final String CODEBOOK = "codebook";
+
+    private final int RADIX;
+    private final int DIMENSION;
+
+
+    /**
+     *
+     * @param radix modulovärdet
+     * @param dimension nyckelns dimension, det vill säga blockstorleken
+     */
+    protected HillKernel(int radix, int dimension) {
+        this.RADIX = radix;
+        this.DIMENSION = dimension;
+    }
+
+
+    /**
+     * Skapar den kärna som passar nyckeln bäst.
+     *
+     * @param key nyckeln som en nxn matris
+     * @param radix modulovärdet
+     * @throws DimensionException om nyckeln inte är en nxn matris
+     */
+    public static HillKernel valueOf(int[][] key, int radix) {
+        return valueOf(key, radix, AUTO, HillCodebookKernel.DEFAULT_LIMIT);
+    }
+
+
+    /**
+     * Skapar en kärna av angiven typ. Med AUTO används en kodbok när radix^n är högst codebookLimit
+     * och annars uppslagstabeller när radix är högst 256.
+     *
+     * @param key nyckeln som en nxn matris
+     * @param radix modulovärdet
+     * @param kernel kärnans typ, AUTO, SCALAR, TABLE, LANES, GEMM eller CODEBOOK
+     * @param codebookLimit största antal block i en kodbok som väljs med AUTO
+     * @throws DimensionException om nyckeln inte är en nxn matris
+     * @throws IllegalArgumentException om kärnans typ är okänd
+     */
+    public static HillKernel valueOf(int[][] key, int radix, String kernel, int codebookLimit) {
+        switch (kernel) {
+            case AUTO:
+                if (HillCodebookKernel.entries(radix, key.length, codebookLimit) > 0) {
+                    return new HillCodebookKernel(valueOf(key, radix, TABLE, codebookLimit));
+                }
+                return radix <= 256 ? new HillTableKernel(key, radix) : new HillScalarKernel(key, radix);
+            case SCALAR:
+                return new HillScalarKernel(key, radix);
+            case TABLE:
+                return new HillTableKernel(key, radix);
+            case LANES:
+                return new HillLaneKernel(key, radix);
+            case GEMM:
+                return new HillGemmKernel(key, radix);
+            case CODEBOOK:
+                return new HillCodebookKernel(valueOf(key, radix, TABLE, codebookLimit));
+            default:
+                throw new IllegalArgumentException("Okänd kärna: " + kernel);
+        }
+    }
+
+
+    /**
+     * Skapar den kärna som passar en nyckel som lästs in som DenseMatrix<Rational> bäst.
+     *
+     * @param key nyckeln
+     * @param radix modulovärdet
+     * @param blockSize storleken på ett block
+     * @throws DimensionException om nyckelns dimension inte stämmer med blockstorleken
+     */
+    public static HillKernel valueOf(DenseMatrix<Rational> key, int radix, int blockSize) {
+        return valueOf(keyOf(key, radix, blockSize), radix);
+    }
+
+
+    /**
+     * Översätter en nyckel som lästs in som DenseMatrix<Rational> till en int-matris reducerad modulo radix.
+     *
+     * @param key nyckeln
+     * @param radix modulovärdet
+     * @param blockSize storleken på ett block
+     * @throws DimensionException om nyckelns dimension inte stämmer med blockstorleken
+     * @throws ArithmeticException om nyckeln innehåller något som inte är ett heltal
+     */
+    public static int[][] keyOf(DenseMatrix<Rational> key, int radix, int blockSize) {
+        return keyOf(keyOf(key, radix), radix, blockSize);
+    }
+
+
+    /**
+     * Översätter en nyckel som lästs in som DenseMatrix<Rational> till en int-matris utan att kontrollera
+     * dimensionen.
+     *
+     * @param key nyckeln
+     * @param radix modulovärdet
+     * @throws ArithmeticException om nyckeln innehåller något som inte är ett heltal
+     */
+    public static int[][] keyOf(DenseMatrix<Rational> key, int radix) {
+        final int ROWS = key.getNumberOfRows();
+        final int COLUMNS = key.getNumberOfColumns();
+        LargeInteger modulus = LargeInteger.valueOf(radix);
+        int[][] values = new int[ROWS][COLUMNS];
+        for (int i = 0; i < ROWS; i++) {
+            for (int j = 0; j < COLUMNS; j++) {
+                Rational value = key.get(i, j);
+                if (!value.getDivisor().equals(LargeInteger.ONE)) {
+                    throw new ArithmeticException("Endast heltal är tillåtna i nyckeln: " + value);
+                }
+                values[i][j] = (int) value.getDividend().mod(modulus).longValue();
+            }
+        }
+        return values;
+    }
+
+
+    /**
+     * Kontrollerar nyckelns dimension och reducerar den modulo radix.
+     *
+     * @param key nyckeln
+     * @param radix modulovärdet
+     * @param blockSize storleken på ett block
+     * @throws DimensionException om nyckelns dimension inte stämmer med blockstorleken
+     */
+    public static int[][] keyOf(int[][] key, int radix, int blockSize) {
+        if (key.length != blockSize) {
+            throw new DimensionException("Nyckeln måste ha dimensionen " + blockSize + "x" + blockSize);
+        }
+        int[][] values = new int[blockSize][blockSize];
+        for (int i = 0; i < blockSize; i++) {
+            if (key[i].length != blockSize) {
+                throw new DimensionException("Nyckeln måste ha dimensionen " + blockSize + "x" + blockSize);
+            }
+            for (int j = 0; j < blockSize; j++) {
+                values[i][j] = Math.floorMod(key[i][j], radix);
+            }
+        }
+        return values;
+    }
+
+
+    public int getRadix() {
+        return RADIX;
+    }
+
+    public int getDimension() {
+        return DIMENSION;
+    }
+
+
+    /**
+     * Transformerar ett antal hela block. Källa och destination får vara samma array.
+     *
+     * @param src blocken som ska transformeras, en symbol per byte
+     * @param srcOffset index för första symbolen i src
+     * @param dst arrayen att skriva resultatet till
+     * @param dstOffset index för första symbolen i dst
+     * @param blocks antal block
+     */
+    public abstract void transform(byte[] src, int srcOffset, byte[] dst, int dstOffset, int blocks);
+
+
+    /**
+     * Transformerar ett antal hela block direkt mellan två buffrar, till exempel minnesmappade filer.
+     * Buffrarnas positioner ändras inte.
+     *
+     * @param src blocken som ska transformeras, en symbol per byte
+     * @param srcIndex absolut index för första symbolen i src
+     * @param dst bufferten att skriva resultatet till
+     * @param dstIndex absolut index för första symbolen i dst
+     * @param blocks antal block
+     */
+    public abstract void transform(ByteBuffer src, int srcIndex, ByteBuffer dst, int dstIndex, int blocks);
+
+
+    /**
+     * @throws IllegalArgumentException om någon symbol är större än eller lika med radix
+     */
+    public void checkSymbols(byte[] symbols, int offset, int length) {
+        if (RADIX > 0xFF) {
+            return;
+        }
+        for (int i = offset; i < offset + length; i++) {
+            if (RADIX <= (symbols[i] & 0xFF)) {
+                throw new IllegalArgumentException("Symbolen " + (symbols[i] & 0xFF) + " är inte mindre än radix");
+            }
+        }
+    }
+
+
+    /**
+     * @throws IllegalArgumentException om någon symbol är större än eller lika med radix
+     */
+    public void checkSymbols(ByteBuffer symbols, int index, int length) {
+        if (RADIX > 0xFF) {
+            return;
+        }
+        for (int i = index; i < index + length; i++) {
+            if (RADIX <= (symbols.get(i) & 0xFF)) {
+                throw new IllegalArgumentException("Symbolen " + (symbols.get(i) & 0xFF) + " är inte mindre än radix");
+            }
+        }
+    }
+}
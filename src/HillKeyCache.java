@@ -0,0 +1,187 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
+
+
+/**
+ * Klassen håller inlästa nycklar och de kärnor som byggts av dem, med deras tabeller, för hela processen.
+ * En post identifieras av nyckelfilens sökväg, ändringstid och storlek tillsammans med en variant som
+ * beskriver vad som byggts, så en ändrad nyckelfil läses in på nytt. När cachen är full kastas den post
+ * ut som använts minst nyligen.
+ */
+public class HillKeyCache {
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private static final HillKeyCache INSTANCE = new HillKeyCache(DEFAULT_CAPACITY);
+
+    private final LinkedHashMap<String, FutureTask<Object>> entries;
+    private int capacity;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+
+    /**
+     *
+     * @param capacity största antal poster
+     */
+    public HillKeyCache(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.entries = new LinkedHashMap<String, FutureTask<Object>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FutureTask<Object>> eldest) {
+                if (size() > HillKeyCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+
+    /**
+     * @return cachen som delas av hela processen
+     */
+    public static HillKeyCache getInstance() {
+        return INSTANCE;
+    }
+
+
+    /**
+     * Hämtar posten för keyFile och variant, eller skapar den med loader. Trådar som samtidigt missar
+     * samma post väntar på en och samma inläsning. Om filens attribut inte kan läsas anropas loader utan
+     * att något sparas, så att felet rapporteras som vanligt.
+     *
+     * @param keyFile nyckelfilen
+     * @param variant vad som byggts av nyckeln, t.ex. från variantOf
+     * @param loader skapar posten vid en miss
+     * @return den sparade eller nyskapade posten
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String keyFile, String variant, Supplier<T> loader) {
+        final String KEY;
+        try {
+            Path path = Paths.get(keyFile).toAbsolutePath().normalize();
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            KEY = path + "|" + attributes.lastModifiedTime().toMillis() + "|" + attributes.size() + "|" + variant;
+        } catch (IOException | RuntimeException e) {
+            return loader.get();
+        }
+        FutureTask<Object> task;
+        boolean load = false;
+        synchronized (this) {
+            task = entries.get(KEY);
+            if (task != null) {
+                hits++;
+            } else {
+                misses++;
+                task = new FutureTask<>(loader::get);
+                entries.put(KEY, task);
+                load = true;
+            }
+        }
+        if (load) {
+            task.run();
+        }
+        try {
+            return (T) await(task);
+        } catch (ExecutionException e) {
+            synchronized (this) {
+                entries.remove(KEY, task);
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+
+    private static Object await(FutureTask<Object> task) throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    /**
+     * @param role "key" för krypteringsnyckeln eller "inverse" för dekrypteringsnyckeln
+     * @param radix modulovärdet
+     * @param blockSize storleken på ett block
+     * @param options flaggorna som påverkar vilken kärna som byggs
+     * @return en variant som skiljer kärnor som byggts olika från samma nyckelfil
+     */
+    public static String variantOf(String role, int radix, int blockSize, HillOptions options) {
+        return role + "|" + radix + "|" + blockSize
+                + "|" + options.get("kernel", HillKernel.AUTO)
+                + "|" + options.get("codebook", "")
+                + "|" + options.get("threads", "")
+                + "|" + options.get("split", "");
+    }
+
+
+    public synchronized void setCapacity(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        while (entries.size() > this.capacity) {
+            entries.remove(entries.keySet().iterator().next());
+            evictions++;
+        }
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+
+    /**
+     * Tömmer cachen och nollställer räknarna.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+
+    @Override
+    public synchronized String toString() {
+        return "Nyckelcache: " + hits + " träffar, " + misses + " missar, " + evictions + " utkastade, "
+                + entries.size() + " av " + capacity + " poster";
+    }
+}
@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.zip.CRC32;
+
+
+/**
+ * Klassen läser och skriver ett nyckelpar i binärt format. Filen börjar med ett huvud på 16 byte
+ * (magiskt tal, radix, dimension och en CRC32-kontrollsumma) följt av nyckeln och dess invers, radvis
+ * med en byte per element. Hela filen läses med en enda läsning och inget behöver tolkas som text.
+ */
+public class HillKeyFile {
+    public static final int MAGIC = 0x484B4231;
+    public static final int HEADER_SIZE = 16;
+
+    private final int[][] key;
+    private final int[][] inverseKey;
+    private final int RADIX;
+    private final int DIMENSION;
+
+
+    /**
+     *
+     * @param key krypteringsnyckeln
+     * @param inverseKey dekrypteringsnyckeln
+     * @param radix modulovärdet, högst 256
+     */
+    public HillKeyFile(int[][] key, int[][] inverseKey, int radix) {
+        if (radix < 2 || radix > 256) {
+            throw new IllegalArgumentException("Radix måste uppfylla: 2 <= radix <= 256");
+        }
+        this.key = key;
+        this.inverseKey = inverseKey;
+        this.RADIX = radix;
+        this.DIMENSION = key.length;
+    }
+
+
+    /**
+     * @param data filens innehåll
+     * @return true om data börjar med det magiska talet för binära nycklar
+     */
+    public static boolean isBinary(byte[] data) {
+        return data.length >= HEADER_SIZE && ByteBuffer.wrap(data).getInt(0) == MAGIC;
+    }
+
+
+    /**
+     * @param data filens innehåll
+     * @return nyckelparet
+     * @throws IOException om data inte är en hel och oskadad binär nyckel
+     */
+    public static HillKeyFile valueOf(byte[] data) throws IOException {
+        if (!isBinary(data)) {
+            throw new IOException("Filen är inte en binär nyckel");
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        final int RADIX = buffer.getInt(4);
+        final int DIMENSION = buffer.getInt(8);
+        if (RADIX < 2 || RADIX > 256 || DIMENSION < 1 || DIMENSION > 256
+                || data.length != HEADER_SIZE + 2 * DIMENSION * DIMENSION) {
+            throw new IOException("Den binära nyckeln har fel storlek");
+        }
+        if (buffer.getInt(12) != checksum(data)) {
+            throw new IOException("Den binära nyckelns kontrollsumma stämmer inte");
+        }
+        return new HillKeyFile(matrix(data, HEADER_SIZE, DIMENSION),
+                matrix(data, HEADER_SIZE + DIMENSION * DIMENSION, DIMENSION), RADIX);
+    }
+
+
+    /**
+     * @param filename filen med nyckelparet
+     * @return nyckelparet
+     */
+    public static HillKeyFile read(String filename) throws IOException {
+        return valueOf(Files.readAllBytes(Paths.get(filename)));
+    }
+
+
+    /**
+     * Läser en nyckel i binärt format eller i textformatet från HillKeys, utan att avsluta programmet
+     * vid fel. Från en textfil läses den enda nyckeln i filen.
+     *
+     * @param filename nyckelfilen
+     * @param radix modulovärdet
+     * @param inverse true för dekrypteringsnyckeln i en binär fil
+     * @return nyckeln reducerad modulo radix
+     * @throws IOException om filen inte kan läsas eller inte innehåller en nxn matris med heltal
+     */
+    public static int[][] readKey(String filename, int radix, boolean inverse) throws IOException {
+        final byte[] data = Files.readAllBytes(Paths.get(filename));
+        if (isBinary(data)) {
+            HillKeyFile keys = valueOf(data);
+            if (keys.getRadix() != radix) {
+                throw new IOException("Nyckeln i " + filename + " är skapad för radix " + keys.getRadix());
+            }
+            return inverse ? keys.getInverseKey() : keys.getKey();
+        }
+        final String[] values = new String(data).trim().split("\\s+");
+        final int DIMENSION = (int) Math.sqrt((double) values.length);
+        if (DIMENSION < 2 || DIMENSION * DIMENSION != values.length) {
+            throw new IOException("Nyckeln i " + filename + " måste vara en nxn matris med n > 1");
+        }
+        final BigInteger MODULUS = BigInteger.valueOf(radix);
+        int[][] key = new int[DIMENSION][DIMENSION];
+        for (int i = 0, index = 0; i < DIMENSION; i++) {
+            for (int j = 0; j < DIMENSION; j++, index++) {
+                try {
+                    key[i][j] = new BigInteger(values[index]).mod(MODULUS).intValue();
+                } catch (NumberFormatException e) {
+                    throw new IOException("Endast heltal är tillåtna i nyckeln. Nyckeln innehöll: " + values[index]);
+                }
+            }
+        }
+        return key;
+    }
+
+
+    /**
+     * Skriver nyckelparet till filename.
+     */
+    public void write(String filename) throws IOException {
+        final byte[] data = new byte[HEADER_SIZE + 2 * DIMENSION * DIMENSION];
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.putInt(MAGIC).putInt(RADIX).putInt(DIMENSION).putInt(0);
+        for (int[][] matrix : new int[][][]{key, inverseKey}) {
+            for (int[] row : matrix) {
+                for (int value : row) {
+                    buffer.put((byte) Math.floorMod(value, RADIX));
+                }
+            }
+        }
+        buffer.putInt(12, checksum(data));
+        Files.write(Paths.get(filename), data);
+    }
+
+
+    public int getRadix() {
+        return RADIX;
+    }
+
+    public int getDimension() {
+        return DIMENSION;
+    }
+
+    /**
+     * @return krypteringsnyckeln
+     */
+    public int[][] getKey() {
+        return key;
+    }
+
+    /**
+     * @return dekrypteringsnyckeln
+     */
+    public int[][] getInverseKey() {
+        return inverseKey;
+    }
+
+
+    /**
+     * @return CRC32 över huvudet utan kontrollsumman och över nycklarna
+     */
+    private static int checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, 12);
+        crc.update(data, HEADER_SIZE, data.length - HEADER_SIZE);
+        return (int) crc.getValue();
+    }
+
+
+    private static int[][] matrix(byte[] data, int offset, int dimension) {
+        int[][] matrix = new int[dimension][dimension];
+        for (int i = 0; i < dimension; i++) {
+            for (int j = 0; j < dimension; j++) {
+                matrix[i][j] = data[offset++] & 0xFF;
+            }
+        }
+        return matrix;
+    }
+}
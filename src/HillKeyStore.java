@@ -0,0 +1,253 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Klassen skapar och läser en nyckelfil med många nyckelpar. Filen börjar med ett huvud på 16 byte
+ * (magiskt tal, radix, dimension och antal nyckelpar) följt av en post per nyckelpar. En post består av
+ * nyckeln och dess invers, radvis med en byte per element, så nyckelpar nummer id ligger på en känd
+ * position och kan läsas utan att resten av filen läses.
+ */
+public class HillKeyStore implements AutoCloseable {
+    public static final int MAGIC = 0x484B5331;
+    public static final int HEADER_SIZE = 16;
+    private static final int MAX_DUPLICATES = 100000;
+
+    private final FileChannel channel;
+    private final int RADIX;
+    private final int DIMENSION;
+    private final int COUNT;
+
+
+    /**
+     *
+     * @param filename nyckelfilen
+     * @throws IOException om filen inte kan läsas eller inte är en nyckelfil
+     */
+    public HillKeyStore(String filename) throws IOException {
+        this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(header, 0);
+            this.RADIX = header.getInt(4);
+            this.DIMENSION = header.getInt(8);
+            this.COUNT = header.getInt(12);
+            if (header.getInt(0) != MAGIC || RADIX < 2 || RADIX > 256 || DIMENSION < 1
+                    || COUNT < 0 || channel.size() != HEADER_SIZE + (long) COUNT * recordSize(DIMENSION)) {
+                throw new IOException(filename + " är inte en nyckelfil");
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+
+    public int getRadix() {
+        return RADIX;
+    }
+
+    public int getDimension() {
+        return DIMENSION;
+    }
+
+    /**
+     * @return antal nyckelpar i filen
+     */
+    public int getCount() {
+        return COUNT;
+    }
+
+
+    /**
+     * @param id nyckelparets nummer, 0 till getCount() - 1
+     * @return krypteringsnyckeln
+     */
+    public int[][] getKey(int id) throws IOException {
+        return read(id, 0);
+    }
+
+
+    /**
+     * @param id nyckelparets nummer, 0 till getCount() - 1
+     * @return dekrypteringsnyckeln
+     */
+    public int[][] getInverseKey(int id) throws IOException {
+        return read(id, DIMENSION * DIMENSION);
+    }
+
+
+    private int[][] read(int id, int offset) throws IOException {
+        if (id < 0 || id >= COUNT) {
+            throw new IndexOutOfBoundsException("Nyckel " + id + " finns inte, filen har " + COUNT + " nycklar");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(DIMENSION * DIMENSION);
+        readFully(buffer, HEADER_SIZE + (long) id * recordSize(DIMENSION) + offset);
+        int[][] key = new int[DIMENSION][DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            for (int j = 0; j < DIMENSION; j++) {
+                key[i][j] = buffer.get(i * DIMENSION + j) & 0xFF;
+            }
+        }
+        return key;
+    }
+
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Nyckelfilen är för kort");
+            }
+        }
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+
+    private static int recordSize(int dimension) {
+        return 2 * dimension * dimension;
+    }
+
+
+    /**
+     * Skapar count olika nyckelpar parallellt och skriver dem till filename. Trådarna slumpar fram nycklar
+     * och räknar ut inverserna medan den anropande tråden sorterar bort dubbletter, numrerar nyckelparen
+     * i den ordning de kommer och skriver dem till filen. Förloppet skrivs till progress en gång per sekund.
+     * Om en tråd avbryts av ett fel avbryts hela genereringen med samma fel.
+     *
+     * @param radix modulovärdet
+     * @param dimension nycklarnas dimension
+     * @param count antal nyckelpar
+     * @param threads antal trådar som skapar nycklar
+     * @param filename nyckelfilen
+     * @param progress dit förloppet skrivs
+     * @return antal dubbletter som sorterades bort
+     * @throws IllegalStateException om det inte verkar finnas count olika nycklar eller om en tråd
+     *         avslutades i förtid
+     */
+    public static long generate(int radix, int dimension, int count, int threads, String filename,
+                                PrintStream progress) throws IOException, InterruptedException {
+        final int KEY_SIZE = dimension * dimension;
+        final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(1024);
+        final AtomicBoolean done = new AtomicBoolean();
+        final ExecutorService workers = Executors.newFixedThreadPool(threads);
+        final List<Future<?>> futures = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            futures.add(workers.submit(() -> {
+                try {
+                    while (!done.get()) {
+                        int[][] key = HillKeys.randomKey(radix, dimension);
+                        byte[] record = new byte[2 * KEY_SIZE];
+                        toBytes(key, record, 0);
+                        toBytes(HillMatrix.inverse(key, radix), record, KEY_SIZE);
+                        while (!done.get() && !queue.offer(record, 100, TimeUnit.MILLISECONDS)) {
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+
+        final long START = System.nanoTime();
+        final Set<String> seen = new HashSet<>();
+        long duplicates = 0;
+        int inARow = 0;
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(filename), 1 << 16))) {
+            output.writeInt(MAGIC);
+            output.writeInt(radix);
+            output.writeInt(dimension);
+            output.writeInt(count);
+            long nextReport = START + 1000000000L;
+            int written = 0;
+            while (written < count) {
+                checkWorkers(futures);
+                byte[] record = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (record != null) {
+                    if (seen.add(new String(record, 0, KEY_SIZE, StandardCharsets.ISO_8859_1))) {
+                        output.write(record);
+                        written++;
+                        inARow = 0;
+                    } else {
+                        duplicates++;
+                        if (++inARow == MAX_DUPLICATES) {
+                            throw new IllegalStateException("Hittade bara " + written + " olika nycklar med radix "
+                                    + radix + " och dimension " + dimension);
+                        }
+                    }
+                }
+                final long NOW = System.nanoTime();
+                if (NOW >= nextReport || written == count) {
+                    progress.println(String.format(Locale.ROOT, "%d/%d nycklar, %d dubbletter, %.0f nycklar/s",
+                            written, count, duplicates, written / ((NOW - START) / 1e9)));
+                    nextReport = NOW + 1000000000L;
+                }
+            }
+        } finally {
+            done.set(true);
+            workers.shutdownNow();
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        return duplicates;
+    }
+
+
+    /**
+     * Trådarna slutar bara när done är satt, så en tråd som redan är klar har avbrutits av ett fel.
+     * Felet kastas vidare i den anropande tråden.
+     */
+    private static void checkWorkers(List<Future<?>> futures) throws InterruptedException {
+        for (Future<?> future : futures) {
+            if (future.isDone()) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    final Throwable CAUSE = e.getCause();
+                    if (CAUSE instanceof Error) {
+                        throw (Error) CAUSE;
+                    }
+                    if (CAUSE instanceof RuntimeException) {
+                        throw (RuntimeException) CAUSE;
+                    }
+                    throw new IllegalStateException("Nyckelgenereringen avbröts: " + CAUSE, CAUSE);
+                }
+                throw new IllegalStateException("En tråd som skapar nycklar avslutades i förtid");
+            }
+        }
+    }
+
+
+    private static void toBytes(int[][] key, byte[] record, int offset) {
+        for (int[] row : key) {
+            for (int value : row) {
+                record[offset++] = (byte) value;
+            }
+        }
+    }
+}
@@ -1,11 +1,8 @@
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.concurrent.ThreadLocalRandom;
-import org.jscience.mathematics.number.LargeInteger;
-import org.jscience.mathematics.number.ModuloInteger;
-import org.jscience.mathematics.number.Rational;
-import org.jscience.mathematics.vector.DenseMatrix;
 
 
 
@@ -15,8 +12,8 @@ import org.jscience.mathematics.vector.DenseMatrix;
  * Klassen skapar en krypteringsnyckel och en dekrypteringsnyckel och skriver båda till fil.
  */
 public class HillKeys {
-    private DenseMatrix<Rational> encryptionKey;
-    private DenseMatrix<Rational> decryptionKey;
+    private int[][] encryptionKey;
+    private int[][] decryptionKey;
     private final int RADIX;
     private final int DIMENSION;
 
@@ -30,7 +27,6 @@ public class HillKeys {
     public HillKeys(int radix, int dimension, String keyFilename, String invKeyFilename){
         this.RADIX = radix;
         this.DIMENSION = dimension;
-        ModuloInteger.setModulus(LargeInteger.valueOf(RADIX));
         createEncryptionKey();
         createDecryptionKey();
         writeKeyToFile(this.encryptionKey, keyFilename);
@@ -38,13 +34,35 @@ public class HillKeys {
     }
 
 
-    private void writeKeyToFile(DenseMatrix<Rational> key, String filename) {
-        final int ROWS = key.getNumberOfRows();
-        final int COLUMNS = key.getNumberOfColumns();
+    /**
+     * Skriver båda nycklarna till en fil i det binära formatet som HillKeyFile läser.
+     *
+     * @param radix modulovärdet
+     * @param dimension nycklarnas dimension
+     * @param keyFilename nyckelfilen
+     */
+    public HillKeys(int radix, int dimension, String keyFilename){
+        this.RADIX = radix;
+        this.DIMENSION = dimension;
+        createEncryptionKey();
+        createDecryptionKey();
+        try {
+            new HillKeyFile(this.encryptionKey, this.decryptionKey, this.RADIX).write(keyFilename);
+        } catch (IOException e) {
+            System.out.println("Kontrollera skrivrättigheter för " + keyFilename + " och försök igen.");
+            System.out.println("Nyckelgenerering avbruten. Programmet avslutas.");
+            System.exit(0);
+        }
+    }
+
+
+    static void writeKeyToFile(int[][] key, String filename) {
+        final int ROWS = key.length;
+        final int COLUMNS = key[0].length;
         try (PrintWriter writer = new PrintWriter(filename, "UTF-8")){
             for (int i = 0; i < ROWS; i++) {
                 for (int j = 0; j < COLUMNS; j++) {
-                    writer.print(key.get(i, j).getDividend());
+                    writer.print(key[i][j]);
                     if (j != COLUMNS - 1) {
                         writer.print(" ");
                     }
@@ -67,18 +85,8 @@ public class HillKeys {
 
 
     private void createDecryptionKey() {
-        Rational[][] tempDecryptKey = new Rational[DIMENSION][DIMENSION];
         try {
-            Rational inverseDeterminantRest = modInverse(this.encryptionKey);
-            this.decryptionKey = this.encryptionKey.inverse().times(inverseDeterminantRest).
-                    times(this.encryptionKey.determinant());
-            for (int i = 0; i < decryptionKey.getNumberOfRows(); i++) {
-                for (int j = 0; j < decryptionKey.getNumberOfRows(); j++) {
-                    tempDecryptKey[i][j] = Rational.valueOf(decryptionKey.get(i, j).getDividend().
-                            mod(LargeInteger.valueOf(this.RADIX)), LargeInteger.ONE);
-                }
-            }
-            this.decryptionKey = DenseMatrix.valueOf(tempDecryptKey);
+            this.decryptionKey = HillMatrix.inverse(this.encryptionKey, this.RADIX);
         } catch (ArithmeticException e) {
             System.out.println("Något gick fel vid nyckelgenerering. Försök igen.");
             System.out.println("Nyckelgenerering avbruten. Programmet avslutat.");
@@ -86,49 +94,72 @@ public class HillKeys {
         }
     }
 
-    public Rational modInverse(DenseMatrix<Rational> key) throws ArithmeticException {
-        return Rational.valueOf(key.determinant().
-                getDividend().modInverse(ModuloInteger.getModulus()), LargeInteger.ONE);
+
+    private void createEncryptionKey() {
+        this.encryptionKey = randomKey(this.RADIX, this.DIMENSION);
     }
 
 
-    private void createEncryptionKey() {
-        int randomNumber;
-        boolean invertible = false;
-        Rational[][] tempKey = new Rational[DIMENSION][DIMENSION];
-        while(!invertible) {
-            for (int i = 0; i < DIMENSION; i++) {
-                for (int j = 0; j < DIMENSION; j++) {
-                    randomNumber = ThreadLocalRandom.current().nextInt(0, RADIX);
-                    tempKey[i][j] = Rational.valueOf(LargeInteger.valueOf(randomNumber),
-                            LargeInteger.ONE);
-                }
-            }
-            try {
-                this.encryptionKey = DenseMatrix.valueOf(tempKey);
-                if (!this.encryptionKey.determinant().isZero()) {
-                    invertible = true;
-                    modInverse(this.encryptionKey);
+    /**
+     * Slumpar fram matriser tills en är inverterbar modulo radix.
+     *
+     * @param radix modulovärdet
+     * @param dimension nyckelns dimension
+     * @return en slumpmässig inverterbar nxn matris
+     */
+    static int[][] randomKey(int radix, int dimension) {
+        int[][] key = new int[dimension][dimension];
+        do {
+            for (int i = 0; i < dimension; i++) {
+                for (int j = 0; j < dimension; j++) {
+                    key[i][j] = ThreadLocalRandom.current().nextInt(0, radix);
                 }
-            } catch (ArithmeticException e) {
-                invertible = false;
             }
-        }
+        } while (!HillMatrix.isInvertible(key, radix));
+        return key;
     }
 
 
 
+    private static void createKeyStore(int radix, int blockSize, String keyStore, HillOptions options) {
+        final int COUNT = options.getInt("count", 1);
+        final int THREADS = options.getInt("threads", Runtime.getRuntime().availableProcessors());
+        try {
+            long duplicates = HillKeyStore.generate(radix, blockSize, COUNT, THREADS, keyStore, System.out);
+            System.out.println(COUNT + " nyckelpar skrivna till " + keyStore + ", " + duplicates + " dubbletter");
+            System.out.println("nyckelgenerering genomförd");
+        } catch (IllegalStateException e) {
+            new File(keyStore).delete();
+            System.out.println(e.getMessage());
+            System.out.println("Nyckelgenerering avbruten. Programmet avslutas.");
+        } catch (InterruptedException e) {
+            new File(keyStore).delete();
+            System.out.println("Nyckelgenerering avbruten. Programmet avslutas.");
+        } catch (IOException e) {
+            new File(keyStore).delete();
+            System.out.println("Kontrollera skrivrättigheter för " + keyStore + " och försök igen.");
+            System.out.println("Nyckelgenerering avbruten. Programmet avslutas.");
+        }
+    }
+
+
     public static void main(String[] args) {
         System.out.println("HILLKEYS");
-        if(args.length != 4) {
+        HillOptions options = new HillOptions(args);
+        args = options.getArguments();
+        final boolean BULK = options.has("count");
+        final boolean BINARY = options.has("binary");
+        if(args.length != (BULK || BINARY ? 3 : 4)) {
             System.out.println("Fel antal argument.");
             System.out.println("mata in: <radix> <blocksize> <keyfile> <plainfile> <cipherfile>");
+            System.out.println("     el: --binary <radix> <blocksize> <keyfile>");
+            System.out.println("     el: --count=<n> [--threads=<n>] <radix> <blocksize> <keystore>");
             System.out.println("Försök igen");
         } else {
             int radix;
             int blockSize;
             String keyFile = args[2];
-            String invKeyFile = args[3];
+            String invKeyFile = BULK || BINARY ? null : args[3];
             try {
                 radix = Integer.parseInt(args[0]);
                 try {
@@ -141,6 +172,11 @@ public class HillKeys {
                         System.out.println("Argumentet <blocksize> måste uppfylla: 2 <= blocksize <= 8");
                         System.out.println("Programmet anropades med <blocksize> = " + args[1]);
                         System.out.println("försök igen");
+                    } else if (BULK) {
+                        createKeyStore(radix, blockSize, keyFile, options);
+                    } else if (BINARY) {
+                        new HillKeys(radix, blockSize, keyFile);
+                        System.out.println("nyckelgenerering genomförd");
                     } else {
                         new HillKeys(radix, blockSize, keyFile, invKeyFile);
                         System.out.println("nyckelgenerering genomförd");
@@ -0,0 +1,43 @@
+/**
+ * Klassen krypterar och dekrypterar block i omgångar om LANES block. Varje utsymbol beräknas som en summa
+ * av nyckelelement gånger hela rader i rutan, en utrad i taget. De inre looparna går över intilliggande
+ * int-värden utan beroenden mellan varven, vilket JIT-kompilatorn kan översätta till SIMD-instruktioner.
+ * Transponering och reduktion sker i HillTiledKernel.
+ */
+public class HillLaneKernel extends HillTiledKernel {
+    public static final int LANES = 64;
+
+
+    /**
+     *
+     * @param key nyckeln som en nxn matris
+     * @param radix modulovärdet, högst 256
+     */
+    public HillLaneKernel(int[][] key, int radix) {
+        super(key, radix, LANES);
+    }
+
+
+    /**
+     * En utrad i taget: accumulator[i] = summan av key[i][j] gånger tile[j].
+     */
+    @Override
+    protected void multiply(int[][] tile, int[][] accumulator) {
+        for (int i = 0; i < DIMENSION; i++) {
+            final int ROW = i * DIMENSION;
+            final int FIRST = key[ROW];
+            final int[] sum = accumulator[i];
+            final int[] lane = tile[0];
+            for (int l = 0; l < LANES; l++) {
+                sum[l] = FIRST * lane[l];
+            }
+            for (int j = 1; j < DIMENSION; j++) {
+                final int K = key[ROW + j];
+                final int[] next = tile[j];
+                for (int l = 0; l < LANES; l++) {
+                    sum[l] += K * next[l];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,488 @@
+import org.jscience.mathematics.vector.DimensionException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Klassen genererar last mot krypteringen. Varje förfrågan väljer en storleksklass ur --mix, krypterar
+ * så många symboler ur en syntetisk korpus med HillCipherOutputStream, dekrypterar resultatet med
+ * HillDecipherInputStream och kontrollerar att klartexten blev densamma. Klartexter som slutar med
+ * symboler som har samma värde som utfyllnaden kortas av vid dekryptering och räknas som tvetydiga
+ * i stället för som fel. Förfrågningar upp till --memory byte går via minnet, större via en tillfällig
+ * fil, så även storlekar på flera GB kan köras.
+ *
+ * Korpusen är slumpade symboler mindre än radix, eller med --sms bokstäver A till Z med engelska
+ * bokstavsfrekvenser för radix 26 och blockstorlek 3. Med --rate skickas förfrågningarna i en fast takt
+ * (öppen loop) och latensen räknas från den planerade starttiden, så att köande syns i percentilerna.
+ * Utan --rate kör varje tråd nästa förfrågan direkt (sluten loop). Latensen samlas i ett logaritmiskt
+ * histogram per storleksklass med under 1 % fel, på samma sätt som HdrHistogram.
+ */
+public class HillLoad {
+    public static final String DEFAULT_MIX = "10:50,160:30,4k:15,1m:5";
+    public static final long DEFAULT_MEMORY = 64L << 20;
+    private static final int CORPUS_SIZE = (1 << 20) + 7;
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int OK = 0;
+    private static final int AMBIGUOUS = 1;
+    private static final int FAILED = 2;
+
+    private final HillKernel encryptor;
+    private final HillKernel decryptor;
+    private final int BLOCKSIZE;
+    private final long SEED;
+    private final long MEMORY;
+    private final File directory;
+    private final byte[] corpus;
+    private final long[] sizes;
+    private final int[] weights;
+    private final Histogram[] histograms;
+    private final AtomicLongArray errors;
+    private final AtomicLongArray ambiguous;
+    private final AtomicLong requests = new AtomicLong();
+    private volatile String firstError;
+    private long wallNanos;
+
+
+    /**
+     *
+     * @param encryptor kärnan som krypterar
+     * @param decryptor kärnan som dekrypterar, skapad från den inversa nyckeln
+     * @param sms true om korpusen ska vara SMS-text
+     * @param mix storleksklasser som storlek:vikt separerade med komma, t.ex. 10:50,4k:30,1g:1
+     * @param memory största storlek som körs i minnet, större förfrågningar går via en fil i directory
+     * @param directory katalogen för tillfälliga filer
+     * @param seed frö för korpus och val av storlek
+     */
+    public HillLoad(HillKernel encryptor, HillKernel decryptor, boolean sms, String mix, long memory,
+                    File directory, long seed) {
+        this.encryptor = encryptor;
+        this.decryptor = decryptor;
+        this.BLOCKSIZE = encryptor.getDimension();
+        this.SEED = seed;
+        this.MEMORY = Math.min(memory, Integer.MAX_VALUE - 8 - BLOCKSIZE);
+        this.directory = directory;
+        this.corpus = sms ? smsCorpus(seed) : randomCorpus(encryptor.getRadix(), seed);
+
+        final String[] CLASSES = mix.split(",");
+        this.sizes = new long[CLASSES.length];
+        this.weights = new int[CLASSES.length];
+        this.histograms = new Histogram[CLASSES.length];
+        this.errors = new AtomicLongArray(CLASSES.length);
+        this.ambiguous = new AtomicLongArray(CLASSES.length);
+        int total = 0;
+        for (int i = 0; i < CLASSES.length; i++) {
+            final String[] CLASS = CLASSES[i].trim().split(":");
+            final int WEIGHT = CLASS.length > 1 ? Integer.parseInt(CLASS[1]) : 1;
+            this.sizes[i] = HillBench.parseSize(CLASS[0]);
+            if (this.sizes[i] < 1 || WEIGHT < 1) {
+                throw new IllegalArgumentException("Felaktig storleksklass: " + CLASSES[i]);
+            }
+            total += WEIGHT;
+            this.weights[i] = total;
+            this.histograms[i] = new Histogram();
+        }
+    }
+
+
+    /**
+     * Kör förfrågningar tills count förfrågningar är klara eller duration nanosekunder har gått.
+     *
+     * @param threads antal trådar som kör förfrågningar
+     * @param count högsta antal förfrågningar
+     * @param duration högsta tid i nanosekunder, 0 betyder ingen gräns
+     * @param rate förfrågningar per sekund i öppen loop, 0 betyder sluten loop
+     */
+    public void run(int threads, long count, long duration, double rate) throws InterruptedException {
+        final long START = System.nanoTime();
+        final long DEADLINE = duration > 0 ? START + duration : Long.MAX_VALUE;
+        final AtomicLong NEXT = new AtomicLong();
+        final List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                final byte[] BUFFER = new byte[CHUNK_SIZE];
+                long request;
+                while ((request = NEXT.getAndIncrement()) < count) {
+                    final long INTENDED = rate > 0 ? START + (long) (request * 1e9 / rate) : System.nanoTime();
+                    if (INTENDED >= DEADLINE || System.nanoTime() >= DEADLINE) {
+                        break;
+                    }
+                    long wait;
+                    while ((wait = INTENDED - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    roundTrip(request, INTENDED, BUFFER);
+                }
+            }, "hillload-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        this.wallNanos = System.nanoTime() - START;
+    }
+
+
+    /**
+     * Krypterar och dekrypterar en förfrågan och registrerar latensen från start.
+     */
+    private void roundTrip(long request, long start, byte[] buffer) {
+        final SplittableRandom RANDOM = new SplittableRandom(SEED + request * 0x9E3779B97F4A7C15L);
+        final int CLASS = classOf(RANDOM.nextInt(this.weights[this.weights.length - 1]));
+        final long SIZE = this.sizes[CLASS];
+        final int OFFSET = RANDOM.nextInt(this.corpus.length);
+        int status = FAILED;
+        File file = null;
+        try {
+            InputStream cipherText;
+            if (SIZE <= MEMORY) {
+                final Buffer CIPHER = new Buffer((int) SIZE + BLOCKSIZE);
+                encrypt(CIPHER, OFFSET, SIZE);
+                cipherText = CIPHER.input();
+            } else {
+                file = File.createTempFile("hillload", ".bin", this.directory);
+                encrypt(new FileOutputStream(file), OFFSET, SIZE);
+                cipherText = new FileInputStream(file);
+            }
+            status = verify(cipherText, OFFSET, SIZE, buffer);
+            if (status == FAILED && this.firstError == null) {
+                this.firstError = "Förfrågan " + request + " om " + SIZE + " byte gav fel klartext";
+            }
+        } catch (IOException | RuntimeException e) {
+            if (this.firstError == null) {
+                this.firstError = "Förfrågan " + request + " om " + SIZE + " byte: " + e;
+            }
+        } finally {
+            if (file != null) {
+                file.delete();
+            }
+        }
+        this.histograms[CLASS].record(System.nanoTime() - start, SIZE);
+        this.requests.incrementAndGet();
+        if (status == FAILED) {
+            this.errors.incrementAndGet(CLASS);
+        } else if (status == AMBIGUOUS) {
+            this.ambiguous.incrementAndGet(CLASS);
+        }
+    }
+
+
+    private void encrypt(OutputStream sink, int offset, long size) throws IOException {
+        try (HillCipherOutputStream out = new HillCipherOutputStream(sink, this.encryptor, CHUNK_SIZE)) {
+            int position = offset;
+            long remaining = size;
+            while (remaining > 0) {
+                final int LENGTH = (int) Math.min(remaining, Math.min(CHUNK_SIZE, this.corpus.length - position));
+                out.write(this.corpus, position, LENGTH);
+                position = (position + LENGTH) % this.corpus.length;
+                remaining -= LENGTH;
+            }
+        }
+    }
+
+
+    /**
+     * @return OK om cipherText dekrypteras till exakt size symboler ur korpusen från offset, AMBIGUOUS om
+     * klartexten slutade med symboler som har samma värde som utfyllnaden och därför togs bort med den,
+     * annars FAILED
+     */
+    private int verify(InputStream cipherText, int offset, long size, byte[] buffer) throws IOException {
+        try (HillDecipherInputStream in = new HillDecipherInputStream(cipherText, this.decryptor, CHUNK_SIZE)) {
+            int position = offset;
+            long remaining = size;
+            int read;
+            while ((read = in.read(buffer, 0, buffer.length)) > 0) {
+                if (read > remaining) {
+                    return FAILED;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] != this.corpus[position]) {
+                        return FAILED;
+                    }
+                    if (++position == this.corpus.length) {
+                        position = 0;
+                    }
+                }
+                remaining -= read;
+            }
+            if (remaining == 0) {
+                return OK;
+            }
+            if (remaining >= BLOCKSIZE) {
+                return FAILED;
+            }
+            for (; remaining > 0; remaining--) {
+                if ((this.corpus[position] & 0xFF) != in.getPaddingValue()) {
+                    return FAILED;
+                }
+                if (++position == this.corpus.length) {
+                    position = 0;
+                }
+            }
+            return AMBIGUOUS;
+        }
+    }
+
+
+    private int classOf(int value) {
+        int i = 0;
+        while (value >= this.weights[i]) {
+            i++;
+        }
+        return i;
+    }
+
+
+    /**
+     * Skriver antal, fel, percentiler och MB/s per storleksklass och totalt.
+     */
+    public void report(PrintStream out) {
+        out.println(String.format(Locale.ROOT, "%-8s %8s %6s %9s %10s %10s %10s %10s %10s",
+                "storlek", "antal", "fel", "tvetydiga", "p50 ms", "p99 ms", "p999 ms", "max ms", "MB/s"));
+        long bytes = 0;
+        long failed = 0;
+        for (int i = 0; i < this.sizes.length; i++) {
+            final Histogram HISTOGRAM = this.histograms[i];
+            bytes += HISTOGRAM.getBytes();
+            failed += this.errors.get(i);
+            out.println(String.format(Locale.ROOT, "%-8s %8d %6d %9d %10.3f %10.3f %10.3f %10.3f %10.2f",
+                    HillBench.sizeOf(this.sizes[i]), HISTOGRAM.getCount(), this.errors.get(i), this.ambiguous.get(i),
+                    HISTOGRAM.percentile(50) / 1e6, HISTOGRAM.percentile(99) / 1e6,
+                    HISTOGRAM.percentile(99.9) / 1e6, HISTOGRAM.getMax() / 1e6,
+                    HISTOGRAM.getNanos() == 0 ? 0 : HISTOGRAM.getBytes() / (HISTOGRAM.getNanos() / 1e9) / 1e6));
+        }
+        final double SECONDS = this.wallNanos / 1e9;
+        out.println(String.format(Locale.ROOT, "%d förfrågningar, %d fel på %.2f s, %.1f förfrågningar/s, %.2f MB/s",
+                this.requests.get(), failed, SECONDS, this.requests.get() / SECONDS, bytes / SECONDS / 1e6));
+        if (this.firstError != null) {
+            out.println("Första felet: " + this.firstError);
+        }
+        if (getAmbiguous() > 0) {
+            out.println("Tvetydiga: klartexten slutade med symboler lika med utfyllnaden och kortades av vid dekryptering");
+        }
+    }
+
+
+    /**
+     * @return antal förfrågningar där klartexten kortades av för att den slutade som utfyllnaden
+     */
+    public long getAmbiguous() {
+        long count = 0;
+        for (int i = 0; i < this.ambiguous.length(); i++) {
+            count += this.ambiguous.get(i);
+        }
+        return count;
+    }
+
+
+    /**
+     * @return antal förfrågningar som inte gav tillbaka samma klartext
+     */
+    public long getErrors() {
+        long failed = 0;
+        for (int i = 0; i < this.errors.length(); i++) {
+            failed += this.errors.get(i);
+        }
+        return failed;
+    }
+
+
+    private static byte[] randomCorpus(int radix, long seed) {
+        final SplittableRandom RANDOM = new SplittableRandom(seed);
+        final byte[] CORPUS = new byte[CORPUS_SIZE];
+        for (int i = 0; i < CORPUS.length; i++) {
+            CORPUS[i] = (byte) RANDOM.nextInt(radix);
+        }
+        return CORPUS;
+    }
+
+
+    /**
+     * @return bokstäver dragna med engelska bokstavsfrekvenser, som symboler 0 till 25
+     */
+    private static byte[] smsCorpus(long seed) {
+        final double[] CUMULATIVE = new double[SmsAttack.LETTERS.length];
+        double sum = 0;
+        for (int i = 0; i < CUMULATIVE.length; i++) {
+            sum += SmsAttack.LETTERS[i];
+            CUMULATIVE[i] = sum;
+        }
+        final SplittableRandom RANDOM = new SplittableRandom(seed);
+        final byte[] CORPUS = new byte[CORPUS_SIZE];
+        for (int i = 0; i < CORPUS.length; i++) {
+            final double X = RANDOM.nextDouble() * sum;
+            int letter = 0;
+            while (letter < CUMULATIVE.length - 1 && X >= CUMULATIVE[letter]) {
+                letter++;
+            }
+            CORPUS[i] = (byte) letter;
+        }
+        return CORPUS;
+    }
+
+
+    /**
+     * ByteArrayOutputStream som kan läsas utan att kopiera innehållet.
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+
+        Buffer(int size) {
+            super(size);
+        }
+
+        InputStream input() {
+            return new ByteArrayInputStream(this.buf, 0, this.count);
+        }
+    }
+
+
+    /**
+     * Logaritmiskt histogram: värden under 2^BITS räknas exakt och större värden i hinkar som är
+     * 1/2^(BITS-1) av värdet breda.
+     */
+    static final class Histogram {
+        private static final int BITS = 8;
+        private static final int HALF = 1 << (BITS - 1);
+
+        private final AtomicLongArray counts = new AtomicLongArray((65 - BITS) * HALF);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+
+        void record(long value, long size) {
+            this.counts.incrementAndGet(indexOf(value));
+            this.count.incrementAndGet();
+            this.nanos.addAndGet(value);
+            this.bytes.addAndGet(size);
+            long current;
+            while (value > (current = this.max.get()) && !this.max.compareAndSet(current, value)) {
+                // Försök igen om en annan tråd hann uppdatera max.
+            }
+        }
+
+
+        /**
+         * @return det högsta värde som hör till samma hink som percentilen p
+         */
+        long percentile(double p) {
+            final long TARGET = Math.max(1, (long) Math.ceil(p / 100 * this.count.get()));
+            long seen = 0;
+            for (int i = 0; i < this.counts.length(); i++) {
+                seen += this.counts.get(i);
+                if (seen >= TARGET) {
+                    return Math.min(valueOf(i + 1) - 1, this.max.get());
+                }
+            }
+            return 0;
+        }
+
+
+        long getCount() {
+            return count.get();
+        }
+
+        long getMax() {
+            return max.get();
+        }
+
+        long getNanos() {
+            return nanos.get();
+        }
+
+        long getBytes() {
+            return bytes.get();
+        }
+
+
+        private static int indexOf(long value) {
+            final int SHIFT = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - BITS);
+            return SHIFT * HALF + (int) (value >>> SHIFT);
+        }
+
+
+        private static long valueOf(int index) {
+            final int SHIFT = index < 2 * HALF ? 0 : index / HALF - 1;
+            return (long) (index - SHIFT * HALF) << SHIFT;
+        }
+    }
+
+
+    public static void main(String[] args) {
+        System.out.println("HILLLOAD");
+        HillOptions options = new HillOptions(args);
+        args = options.getArguments();
+        final boolean SMS = options.has("sms");
+        if (args.length != (SMS ? 0 : 2)) {
+            System.out.println("Fel antal argument.");
+            System.out.println("mata in: <radix> <blocksize> | --sms");
+            System.out.println("flaggor: --mix=<storlek:vikt,...> --threads=<n> --requests=<n> --duration=<s>");
+            System.out.println("         --rate=<förfrågningar/s> --memory=<byte> --seed=<n>");
+            System.out.println("         --key=<keyfile> --inverse=<invkeyfile> --kernel=<auto|scalar|table|lanes|gemm|codebook>");
+            System.out.println("standard: --mix=" + DEFAULT_MIX + " --threads=1 --requests=1000");
+        } else {
+            try {
+                final int RADIX = SMS ? SmsAttack.RADIX : Integer.parseInt(args[0]);
+                final int BLOCKSIZE = SMS ? SmsAttack.BLOCK_SIZE : Integer.parseInt(args[1]);
+                if (RADIX < 2 || RADIX > 256 || BLOCKSIZE < 2 || BLOCKSIZE > 8) {
+                    System.out.println("Argumenten måste uppfylla: 2 <= radix <= 256 och 2 <= blocksize <= 8");
+                } else if (RADIX <= BLOCKSIZE) {
+                    System.out.println("Radix måste vara större än blockstorleken för att utfyllnaden ska rymmas");
+                } else {
+                    int[][] key;
+                    int[][] inverse;
+                    if (options.has("key") && options.has("inverse")) {
+                        key = HillKeyFile.readKey(options.get("key", ""), RADIX, false);
+                        inverse = HillKeyFile.readKey(options.get("inverse", ""), RADIX, true);
+                    } else {
+                        key = HillKeys.randomKey(RADIX, BLOCKSIZE);
+                        inverse = HillMatrix.inverse(key, RADIX);
+                    }
+                    final String KERNEL = options.get("kernel", HillKernel.AUTO);
+                    final int LIMIT = options.getInt("codebook", HillCodebookKernel.DEFAULT_LIMIT);
+                    HillLoad load = new HillLoad(
+                            HillKernel.valueOf(HillKernel.keyOf(key, RADIX, BLOCKSIZE), RADIX, KERNEL, LIMIT),
+                            HillKernel.valueOf(HillKernel.keyOf(inverse, RADIX, BLOCKSIZE), RADIX, KERNEL, LIMIT),
+                            SMS, options.get("mix", DEFAULT_MIX),
+                            HillBench.parseSize(options.get("memory", Long.toString(DEFAULT_MEMORY))),
+                            new File(options.get("directory", System.getProperty("java.io.tmpdir"))),
+                            options.getInt("seed", 4711));
+                    final long DURATION = TimeUnit.SECONDS.toNanos(options.getInt("duration", 0));
+                    final long COUNT = options.has("requests") || DURATION == 0
+                            ? options.getInt("requests", 1000) : Long.MAX_VALUE;
+                    load.run(options.getInt("threads", 1), COUNT, DURATION,
+                            Double.parseDouble(options.get("rate", "0")));
+                    load.report(System.out);
+                }
+            } catch (NumberFormatException e) {
+                System.out.println("Felaktigt tal: " + e.getMessage());
+            } catch (DimensionException e) {
+                System.out.println("Nyckeln måste ha dimensionen nxn och blockstorleken måste vara nx1");
+            } catch (IOException e) {
+                System.out.println("Nyckelfilen gick inte att läsa: " + e.getMessage());
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+            } catch (InterruptedException e) {
+                System.out.println("Lastgenereringen avbröts");
+            }
+        }
+        System.out.println("Programmet avslutas");
+    }
+}
@@ -0,0 +1,90 @@
+import org.jscience.mathematics.vector.DimensionException;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Klassen krypterar och dekrypterar filer via minnesmappning. Kärnan läser blocken direkt ur den mappade
+ * indatafilen och skriver direkt till en mappning av utdatafilen som har fått sin slutliga storlek i förväg.
+ * Filer större än 2 GB mappas i fönster som alltid innehåller hela block.
+ */
+public class HillMapped {
+    private static final int WINDOW_SIZE = 1 << 30;
+
+    private HillMapped() {
+    }
+
+
+    /**
+     * Krypterar inFile till outFile och lägger till utfyllnad.
+     *
+     * @return antal skrivna byte
+     * @throws IllegalArgumentException om en symbol är större än eller lika med radix
+     */
+    public static long encrypt(HillKernel kernel, String inFile, String outFile) throws IOException {
+        final int BLOCKSIZE = kernel.getDimension();
+        try (FileChannel in = FileChannel.open(Paths.get(inFile), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(Paths.get(outFile), StandardOpenOption.READ,
+                     StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final long SIZE = in.size();
+            final long FULL_BLOCKS_SIZE = SIZE - SIZE % BLOCKSIZE;
+            final long CIPHER_SIZE = SIZE + HillPadding.paddingFor(SIZE, BLOCKSIZE);
+            transformWindows(kernel, in, out, FULL_BLOCKS_SIZE);
+
+            final byte[] LAST_BLOCK = new byte[BLOCKSIZE];
+            final int REST = (int) (SIZE - FULL_BLOCKS_SIZE);
+            if (REST > 0) {
+                in.map(FileChannel.MapMode.READ_ONLY, FULL_BLOCKS_SIZE, REST).get(LAST_BLOCK, 0, REST);
+            }
+            HillPadding.pad(LAST_BLOCK, REST, BLOCKSIZE);
+            kernel.checkSymbols(LAST_BLOCK, 0, BLOCKSIZE);
+            kernel.transform(LAST_BLOCK, 0, LAST_BLOCK, 0, 1);
+            out.map(FileChannel.MapMode.READ_WRITE, FULL_BLOCKS_SIZE, BLOCKSIZE).put(LAST_BLOCK);
+            return CIPHER_SIZE;
+        }
+    }
+
+
+    /**
+     * Dekrypterar inFile till outFile och tar bort utfyllnaden genom att korta av utdatafilen.
+     *
+     * @return värdet på den sista dekrypterade symbolen, det vill säga den angivna utfyllnaden
+     * @throws DimensionException om filens längd inte är en multipel av blockstorleken
+     * @throws IllegalArgumentException om en symbol är större än eller lika med radix
+     */
+    public static int decrypt(HillKernel kernel, String inFile, String outFile) throws IOException {
+        final int BLOCKSIZE = kernel.getDimension();
+        try (FileChannel in = FileChannel.open(Paths.get(inFile), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(Paths.get(outFile), StandardOpenOption.READ,
+                     StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final long SIZE = in.size();
+            if (SIZE % BLOCKSIZE != 0) {
+                throw new DimensionException("Längden är inte en multipel av blockstorleken " + BLOCKSIZE);
+            }
+            transformWindows(kernel, in, out, SIZE);
+
+            final byte[] LAST_BLOCK = new byte[BLOCKSIZE];
+            out.map(FileChannel.MapMode.READ_ONLY, SIZE - BLOCKSIZE, BLOCKSIZE).get(LAST_BLOCK);
+            out.truncate(SIZE - HillPadding.count(LAST_BLOCK, 0, BLOCKSIZE));
+            return LAST_BLOCK[BLOCKSIZE - 1] & 0xFF;
+        }
+    }
+
+
+    private static void transformWindows(HillKernel kernel, FileChannel in, FileChannel out, long size)
+            throws IOException {
+        final int BLOCKSIZE = kernel.getDimension();
+        final int WINDOW = WINDOW_SIZE - WINDOW_SIZE % BLOCKSIZE;
+        for (long position = 0; position < size; position += WINDOW) {
+            final int LENGTH = (int) Math.min(WINDOW, size - position);
+            MappedByteBuffer src = in.map(FileChannel.MapMode.READ_ONLY, position, LENGTH);
+            MappedByteBuffer dst = out.map(FileChannel.MapMode.READ_WRITE, position, LENGTH);
+            kernel.checkSymbols(src, 0, LENGTH);
+            kernel.transform(src, 0, dst, 0, LENGTH / BLOCKSIZE);
+        }
+    }
+}
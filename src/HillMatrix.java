@@ -0,0 +1,215 @@
+/**
+ * Klassen räknar ut determinant och invers för kvadratiska matriser direkt över heltalen modulo radix.
+ *
+ * Elimineringen följer Gauss–Jordan. När kolumnen har ett element som är inverterbart modulo radix
+ * används det som pivot, vilket alltid går när radix är ett primtal. För sammansatta radix som 256
+ * kan alla element i kolumnen vara nolldelare; då slås raderna ihop parvis med Euklides utökade
+ * algoritm, som i Hermite- och Howell-formen, tills pivoten är största gemensamma delaren av kolumnen.
+ * Alla radoperationer har determinant 1 eller -1, så matrisen är inverterbar precis när varje pivot är det.
+ */
+public class HillMatrix {
+
+    private HillMatrix() {
+    }
+
+
+    /**
+     * @param matrix en nxn matris
+     * @param radix modulovärdet
+     * @return determinanten modulo radix
+     */
+    public static int determinant(int[][] matrix, int radix) {
+        return eliminate(matrix, radix, false)[0][0];
+    }
+
+
+    /**
+     * @param matrix en nxn matris
+     * @param radix modulovärdet
+     * @return true om matrisen är inverterbar modulo radix
+     */
+    public static boolean isInvertible(int[][] matrix, int radix) {
+        return gcd(determinant(matrix, radix), radix) == 1;
+    }
+
+
+    /**
+     * @param matrix en nxn matris
+     * @param radix modulovärdet
+     * @return inversen modulo radix
+     * @throws ArithmeticException om matrisen inte är inverterbar modulo radix
+     */
+    public static int[][] inverse(int[][] matrix, int radix) {
+        return eliminate(matrix, radix, true);
+    }
+
+
+    /**
+     * @param a en nxn matris
+     * @param b en nxn matris
+     * @param radix modulovärdet
+     * @return a * b modulo radix
+     */
+    public static int[][] times(int[][] a, int[][] b, int radix) {
+        final int DIMENSION = a.length;
+        int[][] product = new int[DIMENSION][DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            for (int j = 0; j < DIMENSION; j++) {
+                long sum = 0;
+                for (int k = 0; k < DIMENSION; k++) {
+                    sum += (long) a[i][k] * b[k][j];
+                }
+                product[i][j] = (int) Math.floorMod(sum, (long) radix);
+            }
+        }
+        return product;
+    }
+
+
+    /**
+     * Reducerar matrisen till enhetsmatrisen och utför samma radoperationer på en enhetsmatris. Med invert
+     * returneras inversen, annars en 1x1-matris med determinanten.
+     */
+    private static int[][] eliminate(int[][] matrix, int radix, boolean invert) {
+        final int DIMENSION = matrix.length;
+        final int[][] a = new int[DIMENSION][];
+        final int[][] inverse = new int[DIMENSION][DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            a[i] = new int[DIMENSION];
+            for (int j = 0; j < DIMENSION; j++) {
+                a[i][j] = Math.floorMod(matrix[i][j], radix);
+            }
+            inverse[i][i] = 1 % radix;
+        }
+        int determinant = 1 % radix;
+        for (int c = 0; c < DIMENSION; c++) {
+            for (int r = c + 1; r < DIMENSION && gcd(a[c][c], radix) != 1; r++) {
+                if (gcd(a[r][c], radix) == 1) {
+                    swap(a, c, r);
+                    swap(inverse, c, r);
+                    determinant = Math.floorMod(-determinant, radix);
+                }
+            }
+            for (int r = c + 1; r < DIMENSION && gcd(a[c][c], radix) != 1; r++) {
+                if (a[r][c] != 0) {
+                    combine(a, inverse, c, r, c, radix);
+                }
+            }
+            final int PIVOT = a[c][c];
+            determinant = determinant * PIVOT % radix;
+            if (gcd(PIVOT, radix) != 1) {
+                if (invert) {
+                    throw new ArithmeticException("Matrisen är inte inverterbar modulo " + radix);
+                }
+                continue;
+            }
+            final int PIVOT_INVERSE = modInverse(PIVOT, radix);
+            scale(a[c], PIVOT_INVERSE, radix);
+            scale(inverse[c], PIVOT_INVERSE, radix);
+            for (int r = 0; r < DIMENSION; r++) {
+                if (r != c && a[r][c] != 0) {
+                    final int FACTOR = radix - a[r][c];
+                    addMultiple(a[r], a[c], FACTOR, radix);
+                    addMultiple(inverse[r], inverse[c], FACTOR, radix);
+                }
+            }
+        }
+        return invert ? inverse : new int[][]{{determinant}};
+    }
+
+
+    /**
+     * Ersätter raderna p och r med (s*p + t*r, -b/g*p + a/g*r) där a och b är elementen i kolumn c och
+     * s*a + t*b = g = gcd(a, b). Operationen har determinant 1 och nollställer elementet i rad r.
+     */
+    private static void combine(int[][] a, int[][] inverse, int p, int r, int c, int radix) {
+        final int[] bezout = extendedGcd(a[p][c], a[r][c]);
+        final int G = bezout[0];
+        final int S = bezout[1];
+        final int T = bezout[2];
+        final int U = -a[r][c] / G;
+        final int V = a[p][c] / G;
+        combineRows(a[p], a[r], S, T, U, V, radix);
+        combineRows(inverse[p], inverse[r], S, T, U, V, radix);
+    }
+
+
+    private static void combineRows(int[] p, int[] r, int s, int t, int u, int v, int radix) {
+        for (int j = 0; j < p.length; j++) {
+            final int P = p[j];
+            final int R = r[j];
+            p[j] = Math.floorMod(s * P + t * R, radix);
+            r[j] = Math.floorMod(u * P + v * R, radix);
+        }
+    }
+
+
+    private static void scale(int[] row, int factor, int radix) {
+        for (int j = 0; j < row.length; j++) {
+            row[j] = row[j] * factor % radix;
+        }
+    }
+
+
+    private static void addMultiple(int[] row, int[] pivotRow, int factor, int radix) {
+        for (int j = 0; j < row.length; j++) {
+            row[j] = (row[j] + factor * pivotRow[j]) % radix;
+        }
+    }
+
+
+    private static void swap(int[][] a, int i, int j) {
+        int[] temp = a[i];
+        a[i] = a[j];
+        a[j] = temp;
+    }
+
+
+    /**
+     * @return {g, s, t} där s*a + t*b = g = gcd(a, b)
+     */
+    private static int[] extendedGcd(int a, int b) {
+        int oldR = a;
+        int r = b;
+        int oldS = 1;
+        int s = 0;
+        int oldT = 0;
+        int t = 1;
+        while (r != 0) {
+            final int Q = oldR / r;
+            int temp = oldR - Q * r;
+            oldR = r;
+            r = temp;
+            temp = oldS - Q * s;
+            oldS = s;
+            s = temp;
+            temp = oldT - Q * t;
+            oldT = t;
+            t = temp;
+        }
+        return new int[]{oldR, oldS, oldT};
+    }
+
+
+    /**
+     * @return x så att a * x = 1 modulo radix
+     * @throws ArithmeticException om a inte är inverterbart modulo radix
+     */
+    public static int modInverse(int a, int radix) {
+        final int[] bezout = extendedGcd(Math.floorMod(a, radix), radix);
+        if (bezout[0] != 1) {
+            throw new ArithmeticException(a + " är inte inverterbart modulo " + radix);
+        }
+        return Math.floorMod(bezout[1], radix);
+    }
+
+
+    public static int gcd(int a, int b) {
+        while (b != 0) {
+            int temp = a % b;
+            a = b;
+            b = temp;
+        }
+        return Math.abs(a);
+    }
+}
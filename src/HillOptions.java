@@ -0,0 +1,80 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Klassen delar upp kommandoradens argument i flaggor på formen --namn eller --namn=värde
+ * och vanliga positionsargument.
+ */
+public class HillOptions {
+    private final Map<String, String> options = new HashMap<>();
+    private final List<String> arguments = new ArrayList<>();
+
+
+    /**
+     * @param args argumenten från main
+     */
+    public HillOptions(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.length() > 2) {
+                int separator = arg.indexOf('=');
+                if (separator < 0) {
+                    options.put(arg.substring(2), "");
+                } else {
+                    options.put(arg.substring(2, separator), arg.substring(separator + 1));
+                }
+            } else {
+                arguments.add(arg);
+            }
+        }
+    }
+
+
+    /**
+     * @return positionsargumenten i samma ordning som de angavs
+     */
+    public String[] getArguments() {
+        return arguments.toArray(new String[arguments.size()]);
+    }
+
+
+    public boolean has(String name) {
+        return options.containsKey(name);
+    }
+
+
+    public String get(String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+
+    /**
+     * Läser en flagga som ett positivt heltal. Programmet avslutas om värdet inte är ett positivt heltal.
+     *
+     * @param name flaggans namn utan --
+     * @param defaultValue värdet om flaggan saknas
+     */
+    public int getInt(String name, int defaultValue) {
+        String value = get(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        int result = 0;
+        try {
+            result = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            result = 0;
+        }
+        if (result < 1) {
+            System.out.println("Flaggan --" + name + " måste vara ett positivt heltal.");
+            System.out.println("Programmet anropades med --" + name + "=" + value);
+            System.out.println();
+            System.out.println("Programmet avslutas");
+            System.exit(0);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Klassen lägger till och räknar PKCS-liknande utfyllnad. Ett meddelande fylls alltid ut med
+ * mellan 1 och blockSize symboler som alla har värdet av antalet utfyllda symboler.
+ */
+public class HillPadding {
+
+    private HillPadding() {
+    }
+
+
+    /**
+     * @param length antal symboler i meddelandet
+     * @param blockSize storleken på ett block
+     * @return antal symboler som ska läggas till
+     */
+    public static int paddingFor(long length, int blockSize) {
+        return blockSize - (int) (length % blockSize);
+    }
+
+
+    /**
+     * Fyller ut meddelandet i buffer så att längden blir en multipel av blockSize. Buffern måste ha
+     * plats för utfyllnaden.
+     *
+     * @param buffer meddelandet
+     * @param length antal symboler i buffer
+     * @param blockSize storleken på ett block
+     * @return längden efter utfyllnad
+     */
+    public static int pad(byte[] buffer, int length, int blockSize) {
+        final int PADDING = paddingFor(length, blockSize);
+        for (int i = length; i < length + PADDING; i++) {
+            buffer[i] = (byte) PADDING;
+        }
+        return length + PADDING;
+    }
+
+
+    /**
+     * Räknar hur många symboler i slutet av det sista blocket som har samma värde som den sista
+     * symbolen.
+     *
+     * @param lastBlock arrayen med det sista dekrypterade blocket
+     * @param offset index för blockets första symbol
+     * @param blockSize storleken på ett block
+     * @return antal symboler som ska tas bort
+     */
+    public static int count(byte[] lastBlock, int offset, int blockSize) {
+        final int PADDING = lastBlock[offset + blockSize - 1] & 0xFF;
+        int paddingCounter = 1;
+        for (int i = offset + blockSize - 2; i >= offset; i--) {
+            if ((lastBlock[i] & 0xFF) == PADDING) {
+                paddingCounter++;
+            } else {
+                break;
+            }
+        }
+        return paddingCounter;
+    }
+}
@@ -0,0 +1,135 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Klassen delar upp blocken mellan trådarna i en ForkJoinPool och låter en annan kärna transformera
+ * varje del. Blocken är oberoende av varandra och varje del skriver till sitt eget område, så resultatet
+ * är identiskt med den sekventiella kärnans.
+ */
+public class HillParallelKernel extends HillKernel {
+    public static final int DEFAULT_MIN_BLOCKS = 1 << 14;
+
+    private final HillKernel kernel;
+    private final ForkJoinPool pool;
+    private final int minBlocks;
+
+
+    /**
+     *
+     * @param kernel kärnan som transformerar varje del
+     * @param threads antal trådar
+     * @param minBlocks minsta antal block i en del som delas upp vidare
+     */
+    public HillParallelKernel(HillKernel kernel, int threads, int minBlocks) {
+        super(kernel.getRadix(), kernel.getDimension());
+        this.kernel = kernel;
+        this.pool = new ForkJoinPool(threads);
+        this.minBlocks = Math.max(1, minBlocks);
+    }
+
+
+    /**
+     * Skapar en kärna som delar pool med andra kärnor, t.ex. för att hålla beräkningarna på ett
+     * begränsat antal trådar medan många jobb väntar på filer.
+     *
+     * @param kernel kärnan som transformerar varje del
+     * @param pool poolen som transformerar delarna
+     * @param minBlocks minsta antal block i en del som delas upp vidare
+     */
+    public HillParallelKernel(HillKernel kernel, ForkJoinPool pool, int minBlocks) {
+        super(kernel.getRadix(), kernel.getDimension());
+        this.kernel = kernel;
+        this.pool = pool;
+        this.minBlocks = Math.max(1, minBlocks);
+    }
+
+
+    /**
+     * @param kernel kärnan som transformerar varje del
+     * @param threads antal trådar
+     * @param minBlocks minsta antal block i en del som delas upp vidare
+     * @return kernel om threads är 1, annars en parallell kärna
+     */
+    public static HillKernel valueOf(HillKernel kernel, int threads, int minBlocks) {
+        return threads <= 1 ? kernel : new HillParallelKernel(kernel, threads, minBlocks);
+    }
+
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+
+    @Override
+    public void transform(byte[] src, int srcOffset, byte[] dst, int dstOffset, int blocks) {
+        pool.invoke(new ArrayTask(src, srcOffset, dst, dstOffset, blocks));
+    }
+
+
+    @Override
+    public void transform(ByteBuffer src, int srcIndex, ByteBuffer dst, int dstIndex, int blocks) {
+        pool.invoke(new BufferTask(src, srcIndex, dst, dstIndex, blocks));
+    }
+
+
+    @SuppressWarnings("serial")
+    private class ArrayTask extends RecursiveAction {
+        private final byte[] src;
+        private final int srcOffset;
+        private final byte[] dst;
+        private final int dstOffset;
+        private final int blocks;
+
+        ArrayTask(byte[] src, int srcOffset, byte[] dst, int dstOffset, int blocks) {
+            this.src = src;
+            this.srcOffset = srcOffset;
+            this.dst = dst;
+            this.dstOffset = dstOffset;
+            this.blocks = blocks;
+        }
+
+        @Override
+        protected void compute() {
+            if (blocks <= minBlocks) {
+                kernel.transform(src, srcOffset, dst, dstOffset, blocks);
+            } else {
+                final int HALF = blocks / 2;
+                final int SPLIT = HALF * getDimension();
+                invokeAll(new ArrayTask(src, srcOffset, dst, dstOffset, HALF),
+                        new ArrayTask(src, srcOffset + SPLIT, dst, dstOffset + SPLIT, blocks - HALF));
+            }
+        }
+    }
+
+
+    @SuppressWarnings("serial")
+    private class BufferTask extends RecursiveAction {
+        private final ByteBuffer src;
+        private final int srcIndex;
+        private final ByteBuffer dst;
+        private final int dstIndex;
+        private final int blocks;
+
+        BufferTask(ByteBuffer src, int srcIndex, ByteBuffer dst, int dstIndex, int blocks) {
+            this.src = src;
+            this.srcIndex = srcIndex;
+            this.dst = dst;
+            this.dstIndex = dstIndex;
+            this.blocks = blocks;
+        }
+
+        @Override
+        protected void compute() {
+            if (blocks <= minBlocks) {
+                kernel.transform(src, srcIndex, dst, dstIndex, blocks);
+            } else {
+                final int HALF = blocks / 2;
+                final int SPLIT = HALF * getDimension();
+                invokeAll(new BufferTask(src, srcIndex, dst, dstIndex, HALF),
+                        new BufferTask(src, srcIndex + SPLIT, dst, dstIndex + SPLIT, blocks - HALF));
+            }
+        }
+    }
+}
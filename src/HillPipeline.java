@@ -0,0 +1,191 @@
+import org.jscience.mathematics.vector.DimensionException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+
+/**
+ * Klassen krypterar och dekrypterar filer i delar där läsning, beräkning och skrivning överlappar.
+ * Medan del k transformeras läses del k+1 och skrivs del k-1 via AsynchronousFileChannel. Med tre
+ * buffrar (standard) pågår alla tre samtidigt, med två buffrar väntar läsningen av del k+1 på att
+ * skrivningen av del k-1 blir klar. Tiden närmar sig då max(I/O, beräkning) i stället för summan.
+ */
+public class HillPipeline {
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    public static final int DEFAULT_BUFFERS = 3;
+
+    private HillPipeline() {
+    }
+
+
+    /**
+     * Krypterar inFile till outFile och lägger till utfyllnad.
+     *
+     * @param chunkSize ungefärligt antal byte per del, avrundas nedåt till hela block
+     * @param buffers antal buffrar, minst 2
+     * @return antal skrivna byte
+     * @throws IllegalArgumentException om en symbol är större än eller lika med radix
+     */
+    public static long encrypt(HillKernel kernel, String inFile, String outFile, int chunkSize, int buffers)
+            throws IOException {
+        try (AsynchronousFileChannel in = AsynchronousFileChannel.open(Paths.get(inFile), StandardOpenOption.READ);
+             AsynchronousFileChannel out = AsynchronousFileChannel.open(Paths.get(outFile), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final long SIZE = in.size();
+            transfer(kernel, in, out, SIZE, chunkSize, buffers, true);
+            return SIZE + HillPadding.paddingFor(SIZE, kernel.getDimension());
+        }
+    }
+
+
+    /**
+     * Dekrypterar inFile till outFile och tar bort utfyllnaden genom att korta av utdatafilen.
+     *
+     * @param chunkSize ungefärligt antal byte per del, avrundas nedåt till hela block
+     * @param buffers antal buffrar, minst 2
+     * @return värdet på den sista dekrypterade symbolen, det vill säga den angivna utfyllnaden
+     * @throws DimensionException om filens längd inte är en multipel av blockstorleken
+     * @throws IllegalArgumentException om en symbol är större än eller lika med radix
+     */
+    public static int decrypt(HillKernel kernel, String inFile, String outFile, int chunkSize, int buffers)
+            throws IOException {
+        final int BLOCKSIZE = kernel.getDimension();
+        try (AsynchronousFileChannel in = AsynchronousFileChannel.open(Paths.get(inFile), StandardOpenOption.READ);
+             AsynchronousFileChannel out = AsynchronousFileChannel.open(Paths.get(outFile), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final long SIZE = in.size();
+            if (SIZE == 0 || SIZE % BLOCKSIZE != 0) {
+                throw new DimensionException("Längden är inte en multipel av blockstorleken " + BLOCKSIZE);
+            }
+            final byte[] LAST_BLOCK = transfer(kernel, in, out, SIZE, chunkSize, buffers, false);
+            out.truncate(SIZE - HillPadding.count(LAST_BLOCK, 0, BLOCKSIZE));
+            return LAST_BLOCK[BLOCKSIZE - 1] & 0xFF;
+        }
+    }
+
+
+    /**
+     * Transformerar size byte från in till out. Med padding läggs utfyllnad till i den sista delen,
+     * som då kan vara tom innan utfyllnaden.
+     *
+     * @return det sista transformerade blocket
+     */
+    private static byte[] transfer(HillKernel kernel, AsynchronousFileChannel in, AsynchronousFileChannel out,
+                                   long size, int chunkSize, int buffers, boolean padding) throws IOException {
+        final int BLOCKSIZE = kernel.getDimension();
+        final int CHUNK = Math.max(1, chunkSize / BLOCKSIZE) * BLOCKSIZE;
+        final long CHUNKS = padding ? size / CHUNK + 1 : (size + CHUNK - 1) / CHUNK;
+        final Slot[] SLOTS = new Slot[Math.max(2, buffers)];
+        for (int i = 0; i < SLOTS.length; i++) {
+            SLOTS[i] = new Slot(CHUNK);
+        }
+        final byte[] LAST_BLOCK = new byte[BLOCKSIZE];
+
+        SLOTS[0].read(in, 0, (int) Math.min(CHUNK, size));
+        for (long k = 0; k < CHUNKS; k++) {
+            final Slot CURRENT = SLOTS[(int) (k % SLOTS.length)];
+            int length = CURRENT.awaitRead();
+            final long NEXT_POSITION = (k + 1) * CHUNK;
+            if (k + 1 < CHUNKS) {
+                final Slot NEXT = SLOTS[(int) ((k + 1) % SLOTS.length)];
+                NEXT.awaitWrite();
+                NEXT.read(in, NEXT_POSITION, (int) Math.min(CHUNK, size - NEXT_POSITION));
+            }
+            if (padding && k + 1 == CHUNKS) {
+                length = HillPadding.pad(CURRENT.array, length, BLOCKSIZE);
+            }
+            kernel.checkSymbols(CURRENT.array, 0, length);
+            kernel.transform(CURRENT.array, 0, CURRENT.array, 0, length / BLOCKSIZE);
+            if (k + 1 == CHUNKS) {
+                System.arraycopy(CURRENT.array, length - BLOCKSIZE, LAST_BLOCK, 0, BLOCKSIZE);
+            }
+            CURRENT.write(out, k * CHUNK, length);
+        }
+        for (Slot slot : SLOTS) {
+            slot.awaitWrite();
+        }
+        return LAST_BLOCK;
+    }
+
+
+    /**
+     * En buffer och den läsning eller skrivning som pågår i den. En ofullständig läsning eller
+     * skrivning fortsätts när man väntar på den.
+     */
+    private static final class Slot {
+        private final byte[] array;
+        private final ByteBuffer buffer;
+        private AsynchronousFileChannel channel;
+        private long position;
+        private Future<Integer> pending;
+
+
+        Slot(int size) {
+            this.array = new byte[size];
+            this.buffer = ByteBuffer.wrap(this.array);
+        }
+
+
+        void read(AsynchronousFileChannel channel, long position, int length) {
+            start(channel, position, length);
+            this.pending = length > 0 ? channel.read(this.buffer, position) : null;
+        }
+
+
+        int awaitRead() throws IOException {
+            while (this.pending != null) {
+                if (await(this.pending) < 0) {
+                    throw new EOFException("Filen tog slut vid position " + (this.position + this.buffer.position()));
+                }
+                this.pending = this.buffer.hasRemaining()
+                        ? this.channel.read(this.buffer, this.position + this.buffer.position()) : null;
+            }
+            return this.buffer.position();
+        }
+
+
+        void write(AsynchronousFileChannel channel, long position, int length) {
+            start(channel, position, length);
+            this.pending = length > 0 ? channel.write(this.buffer, position) : null;
+        }
+
+
+        void awaitWrite() throws IOException {
+            while (this.pending != null) {
+                await(this.pending);
+                this.pending = this.buffer.hasRemaining()
+                        ? this.channel.write(this.buffer, this.position + this.buffer.position()) : null;
+            }
+        }
+
+
+        private void start(AsynchronousFileChannel channel, long position, int length) {
+            this.channel = channel;
+            this.position = position;
+            this.buffer.clear();
+            this.buffer.limit(length);
+        }
+
+
+        private static int await(Future<Integer> future) throws IOException {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+}
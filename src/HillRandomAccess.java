@@ -0,0 +1,164 @@
+import org.jscience.mathematics.vector.DimensionException;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Klassen dekrypterar godtyckliga delar av en krypterad fil utan att läsa resten av den. Blocken är
+ * oberoende av varandra, så för intervallet [offset, offset + length) läses och dekrypteras bara de block
+ * som täcker intervallet. Det sista blocket dekrypteras en gång när filen öppnas för att klartextens
+ * längd utan utfyllnad ska bli känd.
+ */
+public class HillRandomAccess implements Closeable {
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final HillKernel kernel;
+    private final FileChannel channel;
+    private final int BLOCKSIZE;
+    private final long LENGTH;
+    private final int PADDING_VALUE;
+    private final byte[] buffer;
+
+
+    /**
+     *
+     * @param kernel kärnan som dekrypterar blocken, alltså skapad från den inversa nyckeln
+     * @param cipherFile den krypterade filen
+     * @throws DimensionException om filen är tom eller dess längd inte är en multipel av blockstorleken
+     * @throws IllegalArgumentException om en symbol i det sista blocket är större än eller lika med radix
+     */
+    public HillRandomAccess(HillKernel kernel, String cipherFile) throws IOException {
+        this.kernel = kernel;
+        this.BLOCKSIZE = kernel.getDimension();
+        this.buffer = new byte[Math.max(1, CHUNK_SIZE / BLOCKSIZE) * BLOCKSIZE];
+        this.channel = FileChannel.open(Paths.get(cipherFile), StandardOpenOption.READ);
+        try {
+            final long SIZE = this.channel.size();
+            if (SIZE == 0 || SIZE % BLOCKSIZE != 0) {
+                throw new DimensionException("Längden är inte en multipel av blockstorleken " + BLOCKSIZE);
+            }
+            decryptBlocks(SIZE - BLOCKSIZE, BLOCKSIZE);
+            this.PADDING_VALUE = this.buffer[BLOCKSIZE - 1] & 0xFF;
+            this.LENGTH = SIZE - HillPadding.count(this.buffer, 0, BLOCKSIZE);
+        } catch (IOException | RuntimeException e) {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * @return klartextens längd utan utfyllnad
+     */
+    public long length() {
+        return LENGTH;
+    }
+
+
+    /**
+     * @return värdet på den sista dekrypterade symbolen, det vill säga den angivna utfyllnaden
+     */
+    public int getPaddingValue() {
+        return PADDING_VALUE;
+    }
+
+
+    /**
+     * Dekrypterar upp till length byte klartext från offset till dst.
+     *
+     * @return antal dekrypterade byte, eller -1 om offset ligger vid eller efter klartextens slut
+     * @throws IllegalArgumentException om en symbol är större än eller lika med radix
+     */
+    public int read(long offset, byte[] dst, int dstOffset, int length) throws IOException {
+        if (offset < 0 || length < 0 || dstOffset < 0 || dstOffset + length > dst.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (offset >= LENGTH) {
+            return -1;
+        }
+        final int SIZE = (int) Math.min(length, LENGTH - offset);
+        int done = 0;
+        while (done < SIZE) {
+            final long POSITION = offset + done;
+            final long FIRST = POSITION - POSITION % BLOCKSIZE;
+            final int SKIP = (int) (POSITION - FIRST);
+            final int COVER = (int) Math.min(this.buffer.length, roundUp(SKIP + SIZE - done));
+            decryptBlocks(FIRST, COVER);
+            final int COUNT = Math.min(SIZE - done, COVER - SKIP);
+            System.arraycopy(this.buffer, SKIP, dst, dstOffset + done, COUNT);
+            done += COUNT;
+        }
+        return SIZE;
+    }
+
+
+    /**
+     * @return klartexten i [offset, offset + length), kortare om intervallet når förbi klartextens slut
+     */
+    public byte[] read(long offset, int length) throws IOException {
+        final byte[] RESULT = new byte[(int) Math.max(0, Math.min(length, LENGTH - offset))];
+        if (RESULT.length > 0) {
+            read(offset, RESULT, 0, RESULT.length);
+        }
+        return RESULT;
+    }
+
+
+    /**
+     * @return de sista length byte av klartexten, eller hela klartexten om den är kortare
+     */
+    public byte[] tail(int length) throws IOException {
+        return read(Math.max(0, LENGTH - length), length);
+    }
+
+
+    /**
+     * Dekrypterar klartexten i [offset, offset + length) och skriver den till out i delar.
+     *
+     * @return antal skrivna byte
+     */
+    public long transferTo(long offset, long length, OutputStream out) throws IOException {
+        final byte[] CHUNK = new byte[this.buffer.length];
+        long done = 0;
+        int read;
+        while (done < length
+                && (read = read(offset + done, CHUNK, 0, (int) Math.min(CHUNK.length, length - done))) > 0) {
+            out.write(CHUNK, 0, read);
+            done += read;
+        }
+        return done;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+
+    private long roundUp(long length) {
+        return (length + BLOCKSIZE - 1) / BLOCKSIZE * BLOCKSIZE;
+    }
+
+
+    /**
+     * Läser length byte, hela block, från position i filen och dekrypterar dem i buffer.
+     */
+    private void decryptBlocks(long position, int length) throws IOException {
+        final ByteBuffer TARGET = ByteBuffer.wrap(this.buffer, 0, length);
+        while (TARGET.hasRemaining()) {
+            if (this.channel.read(TARGET, position + TARGET.position()) < 0) {
+                throw new EOFException("Filen tog slut vid position " + (position + TARGET.position()));
+            }
+        }
+        this.kernel.checkSymbols(this.buffer, 0, length);
+        this.kernel.transform(this.buffer, 0, this.buffer, 0, length / BLOCKSIZE);
+    }
+}
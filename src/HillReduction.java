@@ -0,0 +1,132 @@
+/**
+ * Klassen reducerar summor modulo radix för en hel rad i taget. Rätt variant väljs en gång när kärnan
+ * skapas, så loopen i reduce har ingen förgrening per element:
+ *
+ * - radix som är en tvåpotens, t.ex. 256, reduceras med en bitmask
+ * - radix 26 för SMS reduceras med en konstant som JIT-kompilatorn ersätter med multiplikation och skift
+ * - övriga radix reduceras med Barrett-reduktion med en förberäknad konstant
+ *
+ * Summorna måste vara icke-negativa och mindre än 2^31.
+ */
+public abstract class HillReduction {
+    private final int RADIX;
+
+
+    private HillReduction(int radix) {
+        this.RADIX = radix;
+    }
+
+
+    /**
+     * @param radix modulovärdet
+     * @return den reduktion som passar radix bäst
+     */
+    public static HillReduction valueOf(int radix) {
+        if (radix < 1) {
+            throw new IllegalArgumentException("Radix måste vara positivt");
+        }
+        if ((radix & (radix - 1)) == 0) {
+            return new PowerOfTwo(radix);
+        }
+        if (radix == 26) {
+            return new Radix26();
+        }
+        return new Barrett(radix);
+    }
+
+
+    public int getRadix() {
+        return RADIX;
+    }
+
+
+    /**
+     * @return x modulo radix
+     */
+    public abstract int reduce(int x);
+
+
+    /**
+     * Reducerar de count första summorna på plats.
+     */
+    public abstract void reduce(int[] sums, int count);
+
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + RADIX + ")";
+    }
+
+
+    private static final class PowerOfTwo extends HillReduction {
+        private final int MASK;
+
+        PowerOfTwo(int radix) {
+            super(radix);
+            this.MASK = radix - 1;
+        }
+
+        @Override
+        public int reduce(int x) {
+            return x & MASK;
+        }
+
+        @Override
+        public void reduce(int[] sums, int count) {
+            for (int i = 0; i < count; i++) {
+                sums[i] &= MASK;
+            }
+        }
+    }
+
+
+    private static final class Radix26 extends HillReduction {
+
+        Radix26() {
+            super(26);
+        }
+
+        @Override
+        public int reduce(int x) {
+            return x % 26;
+        }
+
+        @Override
+        public void reduce(int[] sums, int count) {
+            for (int i = 0; i < count; i++) {
+                sums[i] %= 26;
+            }
+        }
+    }
+
+
+    /**
+     * q = (x * m) >>> 32 med m = floor(2^32 / radix) underskattar x / radix med högst 1, så en
+     * korrigering räcker.
+     */
+    private static final class Barrett extends HillReduction {
+        private final int RADIX;
+        private final long FACTOR;
+
+        Barrett(int radix) {
+            super(radix);
+            this.RADIX = radix;
+            this.FACTOR = (1L << 32) / radix;
+        }
+
+        @Override
+        public int reduce(int x) {
+            int r = x - (int) ((x * FACTOR) >>> 32) * RADIX;
+            return r >= RADIX ? r - RADIX : r;
+        }
+
+        @Override
+        public void reduce(int[] sums, int count) {
+            for (int i = 0; i < count; i++) {
+                final int X = sums[i];
+                final int R = X - (int) ((X * FACTOR) >>> 32) * RADIX;
+                sums[i] = R >= RADIX ? R - RADIX : R;
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+import org.jscience.mathematics.vector.DimensionException;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Klassen krypterar och dekrypterar block med en nyckel som lagras som en primitiv int-matris.
+ * Varje symbol i ett block beräknas med heltalsmultiplikation och addition följt av en enda
+ * modulo-operation.
+ */
+public class HillScalarKernel extends HillKernel {
+    private final int[] key;
+    private final int RADIX;
+    private final int DIMENSION;
+
+
+    /**
+     *
+     * @param key nyckeln som en nxn matris
+     * @param radix modulovärdet
+     */
+    public HillScalarKernel(int[][] key, int radix) {
+        super(radix, key.length);
+        this.RADIX = radix;
+        this.DIMENSION = key.length;
+        this.key = new int[DIMENSION * DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            if (key[i].length != DIMENSION) {
+                throw new DimensionException("Nyckeln måste vara en nxn matris");
+            }
+            for (int j = 0; j < DIMENSION; j++) {
+                this.key[i * DIMENSION + j] = Math.floorMod(key[i][j], radix);
+            }
+        }
+    }
+
+
+    @Override
+    public void transform(byte[] src, int srcOffset, byte[] dst, int dstOffset, int blocks) {
+        final int[] block = new int[DIMENSION];
+        for (int b = 0; b < blocks; b++) {
+            for (int j = 0; j < DIMENSION; j++) {
+                block[j] = src[srcOffset++] & 0xFF;
+            }
+            for (int i = 0, row = 0; i < DIMENSION; i++, row += DIMENSION) {
+                int sum = 0;
+                for (int j = 0; j < DIMENSION; j++) {
+                    sum += key[row + j] * block[j];
+                }
+                dst[dstOffset++] = (byte) (sum % RADIX);
+            }
+        }
+    }
+
+
+    @Override
+    public void transform(ByteBuffer src, int srcIndex, ByteBuffer dst, int dstIndex, int blocks) {
+        final int[] block = new int[DIMENSION];
+        for (int b = 0; b < blocks; b++) {
+            for (int j = 0; j < DIMENSION; j++) {
+                block[j] = src.get(srcIndex++) & 0xFF;
+            }
+            for (int i = 0, row = 0; i < DIMENSION; i++, row += DIMENSION) {
+                int sum = 0;
+                for (int j = 0; j < DIMENSION; j++) {
+                    sum += key[row + j] * block[j];
+                }
+                dst.put(dstIndex++, (byte) (sum % RADIX));
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+import java.io.PrintStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * Klassen mäter hur lång tid varje fas i en körning tar (läsning, nyckel, kontroll, transformering,
+ * skrivning) och hur många byte fasen behandlade. --stats skriver ut fördelningen och MB/s när körningen
+ * är klar.
+ *
+ * Varje fas blir också en JFR-händelse "hill.Phase" med fälten phase, bytes, blocks, radix, blockSize och
+ * dimension, där nyckelns dimension alltid är lika med blockstorleken. Eftersom koden kompileras för
+ * Java 8 skapas händelsetypen med jdk.jfr.EventFactory via reflektion, och först när
+ * FlightRecorder.isInitialized() visar att JFR används. En vanlig körning skapar alltså ingen
+ * händelsetyp; kostnaden är ett anrop till isInitialized per fas. Finns inte JFR görs ingenting.
+ */
+public class HillStats {
+    public static final String READ = "läsning";
+    public static final String KEY = "nyckel";
+    public static final String CHECK = "kontroll";
+    public static final String TRANSFORM = "transform";
+    public static final String WRITE = "skrivning";
+
+    private static Method isInitialized;
+    private static Recorder recorder;
+
+    private final int RADIX;
+    private final int BLOCKSIZE;
+    private final long START = System.nanoTime();
+    private final Map<String, long[]> phases = new LinkedHashMap<>();
+
+
+    /**
+     *
+     * @param radix modulovärdet
+     * @param blockSize storleken på ett block
+     */
+    public HillStats(int radix, int blockSize) {
+        this.RADIX = radix;
+        this.BLOCKSIZE = blockSize;
+    }
+
+
+    /**
+     * Startar en fas. Fasen räknas först när end anropas.
+     *
+     * @param name fasens namn, t.ex. READ
+     */
+    public Phase begin(String name) {
+        return new Phase(name);
+    }
+
+
+    /**
+     * @return antal nanosekunder och byte för varje avslutad fas i den ordning faserna först avslutades
+     */
+    public Map<String, long[]> getPhases() {
+        return Collections.unmodifiableMap(phases);
+    }
+
+
+    /**
+     * Skriver ut tid, andel av den totala tiden, byte och MB/s för varje fas.
+     */
+    public void print(PrintStream out) {
+        final long TOTAL = System.nanoTime() - START;
+        long bytes = 0;
+        out.println(String.format(Locale.ROOT, "Statistik för radix %d, blockstorlek %d:", RADIX, BLOCKSIZE));
+        for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+            final long NANOS = phase.getValue()[0];
+            final long BYTES = phase.getValue()[1];
+            bytes = Math.max(bytes, BYTES);
+            out.println(line(phase.getKey(), NANOS, TOTAL, BYTES));
+        }
+        out.println(line("totalt", TOTAL, TOTAL, bytes));
+    }
+
+
+    private static String line(String name, long nanos, long total, long bytes) {
+        final String TIME = String.format(Locale.ROOT, "  %-10s %10.2f ms %5.1f %%", name, nanos / 1e6, 100.0 * nanos / total);
+        if (bytes == 0 || nanos == 0) {
+            return TIME;
+        }
+        return TIME + String.format(Locale.ROOT, " %12d byte %10.2f MB/s", bytes, bytes / (nanos / 1e9) / 1e6);
+    }
+
+
+    /**
+     * @return händelsetypen om JFR används, annars null. Den skapas första gången JFR är igång.
+     */
+    private static synchronized Recorder recorder() {
+        if (recorder != null) {
+            return recorder;
+        }
+        try {
+            if (isInitialized == null) {
+                isInitialized = Class.forName("jdk.jfr.FlightRecorder").getMethod("isInitialized");
+            }
+            if ((Boolean) isInitialized.invoke(null)) {
+                recorder = Recorder.create();
+            }
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            recorder = Recorder.create();
+        }
+        return recorder;
+    }
+
+
+    /**
+     * En pågående fas.
+     */
+    public final class Phase {
+        private final String NAME;
+        private final long BEGIN = System.nanoTime();
+        private final Object event;
+
+
+        private Phase(String name) {
+            this.NAME = name;
+            final Recorder RECORDER = recorder();
+            this.event = RECORDER == null ? null : RECORDER.begin();
+        }
+
+
+        /**
+         * Avslutar fasen.
+         *
+         * @param bytes antal byte som fasen behandlade
+         */
+        public void end(long bytes) {
+            final long NANOS = System.nanoTime() - BEGIN;
+            long[] phase = phases.get(NAME);
+            if (phase == null) {
+                phase = new long[2];
+                phases.put(NAME, phase);
+            }
+            phase[0] += NANOS;
+            phase[1] += bytes;
+            if (event != null) {
+                recorder().commit(event, NAME, bytes, bytes / BLOCKSIZE, RADIX, BLOCKSIZE, BLOCKSIZE);
+            }
+        }
+    }
+
+
+    /**
+     * Skapar och skickar JFR-händelser via reflektion. Om jdk.jfr saknas är alla metoder null och
+     * begin returnerar alltid null.
+     */
+    private static final class Recorder {
+        private final Object factory;
+        private final Method newEvent;
+        private final Method isEnabled;
+        private final Method begin;
+        private final Method set;
+        private final Method commit;
+
+
+        private Recorder(Object factory, Method newEvent, Method isEnabled, Method begin, Method set, Method commit) {
+            this.factory = factory;
+            this.newEvent = newEvent;
+            this.isEnabled = isEnabled;
+            this.begin = begin;
+            this.set = set;
+            this.commit = commit;
+        }
+
+
+        static Recorder create() {
+            try {
+                final Class<?> ANNOTATION = Class.forName("jdk.jfr.AnnotationElement");
+                final Class<?> VALUE = Class.forName("jdk.jfr.ValueDescriptor");
+                final Class<?> FACTORY = Class.forName("jdk.jfr.EventFactory");
+                final Class<?> EVENT = Class.forName("jdk.jfr.Event");
+                final Constructor<?> NEW_ANNOTATION = ANNOTATION.getConstructor(Class.class, Object.class);
+                final Constructor<?> NEW_VALUE = VALUE.getConstructor(Class.class, String.class);
+
+                final List<Object> annotations = new ArrayList<>();
+                annotations.add(NEW_ANNOTATION.newInstance(Class.forName("jdk.jfr.Name"), "hill.Phase"));
+                annotations.add(NEW_ANNOTATION.newInstance(Class.forName("jdk.jfr.Label"), "Hill Phase"));
+                annotations.add(NEW_ANNOTATION.newInstance(Class.forName("jdk.jfr.Category"), new String[]{"Hill"}));
+                final List<Object> fields = new ArrayList<>();
+                for (Object[] field : Arrays.asList(new Object[]{String.class, "phase"}, new Object[]{long.class, "bytes"},
+                        new Object[]{long.class, "blocks"}, new Object[]{int.class, "radix"},
+                        new Object[]{int.class, "blockSize"}, new Object[]{int.class, "dimension"})) {
+                    fields.add(NEW_VALUE.newInstance(field[0], field[1]));
+                }
+                final Object FACTORY_INSTANCE = FACTORY.getMethod("create", List.class, List.class)
+                        .invoke(null, annotations, fields);
+                return new Recorder(FACTORY_INSTANCE, FACTORY.getMethod("newEvent"), EVENT.getMethod("isEnabled"),
+                        EVENT.getMethod("begin"), EVENT.getMethod("set", int.class, Object.class),
+                        EVENT.getMethod("commit"));
+            } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+                return new Recorder(null, null, null, null, null, null);
+            }
+        }
+
+
+        /**
+         * @return en startad händelse, eller null om händelsen inte spelas in
+         */
+        Object begin() {
+            if (factory == null) {
+                return null;
+            }
+            try {
+                final Object EVENT = newEvent.invoke(factory);
+                if (!(Boolean) isEnabled.invoke(EVENT)) {
+                    return null;
+                }
+                begin.invoke(EVENT);
+                return EVENT;
+            } catch (ReflectiveOperationException e) {
+                return null;
+            }
+        }
+
+
+        void commit(Object event, String phase, long bytes, long blocks, int radix, int blockSize, int dimension) {
+            try {
+                final Object[] VALUES = {phase, bytes, blocks, radix, blockSize, dimension};
+                for (int i = 0; i < VALUES.length; i++) {
+                    set.invoke(event, i, VALUES[i]);
+                }
+                commit.invoke(event);
+            } catch (ReflectiveOperationException e) {
+                // Händelsen går förlorad men körningen påverkas inte.
+            }
+        }
+    }
+}
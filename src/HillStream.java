@@ -0,0 +1,118 @@
+import org.jscience.mathematics.vector.DimensionException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+
+/**
+ * Klassen krypterar och dekrypterar en ström i delar av fast storlek. Varje del innehåller hela block
+ * och samma buffer återanvänds för hela strömmen, så minnesåtgången beror inte på filens storlek.
+ * Utfyllnad läggs bara till i, och tas bara bort från, den sista delen.
+ */
+public class HillStream {
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    private final HillKernel kernel;
+    private final int BLOCKSIZE;
+    private final byte[] buffer;
+    private long bytesRead;
+    private long bytesWritten;
+    private int paddingValue;
+
+
+    /**
+     *
+     * @param kernel kärnan som transformerar blocken
+     * @param chunkSize ungefärligt antal byte per del, avrundas nedåt till hela block
+     */
+    public HillStream(HillKernel kernel, int chunkSize) {
+        this.kernel = kernel;
+        this.BLOCKSIZE = kernel.getDimension();
+        this.buffer = new byte[Math.max(1, chunkSize / BLOCKSIZE) * BLOCKSIZE];
+    }
+
+
+    /**
+     * Krypterar hela in och skriver resultatet till out. Strömmarna stängs inte.
+     *
+     * @throws IllegalArgumentException om en symbol är större än eller lika med radix
+     */
+    public void encrypt(InputStream in, OutputStream out) throws IOException {
+        boolean last = false;
+        while (!last) {
+            int length = fill(in);
+            this.bytesRead += length;
+            if (length < this.buffer.length) {
+                length = HillPadding.pad(this.buffer, length, BLOCKSIZE);
+                last = true;
+            }
+            this.kernel.checkSymbols(this.buffer, 0, length);
+            this.kernel.transform(this.buffer, 0, this.buffer, 0, length / BLOCKSIZE);
+            out.write(this.buffer, 0, length);
+            this.bytesWritten += length;
+        }
+    }
+
+
+    /**
+     * Dekrypterar hela in och skriver resultatet utan utfyllnad till out. Strömmarna stängs inte.
+     * Det sista blocket hålls kvar tills hela strömmen är läst.
+     *
+     * @throws DimensionException om strömmens längd inte är en multipel av blockstorleken
+     * @throws IllegalArgumentException om en symbol är större än eller lika med radix
+     */
+    public void decrypt(InputStream in, OutputStream out) throws IOException {
+        final byte[] LAST_BLOCK = new byte[BLOCKSIZE];
+        boolean pending = false;
+        int length;
+        while ((length = fill(in)) > 0) {
+            this.bytesRead += length;
+            if (length % BLOCKSIZE != 0) {
+                throw new DimensionException("Längden är inte en multipel av blockstorleken " + BLOCKSIZE);
+            }
+            this.kernel.checkSymbols(this.buffer, 0, length);
+            this.kernel.transform(this.buffer, 0, this.buffer, 0, length / BLOCKSIZE);
+            if (pending) {
+                out.write(LAST_BLOCK);
+                this.bytesWritten += BLOCKSIZE;
+            }
+            out.write(this.buffer, 0, length - BLOCKSIZE);
+            this.bytesWritten += length - BLOCKSIZE;
+            System.arraycopy(this.buffer, length - BLOCKSIZE, LAST_BLOCK, 0, BLOCKSIZE);
+            pending = true;
+        }
+        if (pending) {
+            this.paddingValue = LAST_BLOCK[BLOCKSIZE - 1] & 0xFF;
+            final int SIZE = BLOCKSIZE - HillPadding.count(LAST_BLOCK, 0, BLOCKSIZE);
+            out.write(LAST_BLOCK, 0, SIZE);
+            this.bytesWritten += SIZE;
+        }
+    }
+
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return värdet på den sista dekrypterade symbolen, det vill säga den angivna utfyllnaden
+     */
+    public int getPaddingValue() {
+        return paddingValue;
+    }
+
+
+    private int fill(InputStream in) throws IOException {
+        int length = 0;
+        int read;
+        while (length < this.buffer.length && (read = in.read(this.buffer, length, this.buffer.length - length)) > 0) {
+            length += read;
+        }
+        return length;
+    }
+}
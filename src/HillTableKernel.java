@@ -0,0 +1,85 @@
+import org.jscience.mathematics.vector.DimensionException;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Klassen krypterar och dekrypterar block med uppslagstabeller som byggs en gång per nyckel.
+ * För varje kolumn j i nyckeln och varje symbol v lagras kolumnen key[i][j] * v mod radix, så en
+ * symbol i ett block blir en summa av tabellvärden följt av en enda reduktion med HillReduction. Med radix
+ * högst 256 och blockstorlek högst 8 blir tabellen högst 8x8x256 värden.
+ */
+public class HillTableKernel extends HillKernel {
+    private static final int SYMBOLS = 256;
+
+    private final short[] table;
+    private final HillReduction reduction;
+    private final int DIMENSION;
+
+
+    /**
+     *
+     * @param key nyckeln som en nxn matris
+     * @param radix modulovärdet, högst 256
+     */
+    public HillTableKernel(int[][] key, int radix) {
+        super(radix, key.length);
+        if (radix > SYMBOLS) {
+            throw new IllegalArgumentException("Radix får vara högst " + SYMBOLS);
+        }
+        this.DIMENSION = key.length;
+        this.reduction = HillReduction.valueOf(radix);
+        this.table = new short[DIMENSION * SYMBOLS * DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            if (key[i].length != DIMENSION) {
+                throw new DimensionException("Nyckeln måste vara en nxn matris");
+            }
+        }
+        for (int j = 0; j < DIMENSION; j++) {
+            for (int v = 0; v < SYMBOLS; v++) {
+                final int BASE = (j * SYMBOLS + v) * DIMENSION;
+                for (int i = 0; i < DIMENSION; i++) {
+                    this.table[BASE + i] = (short) (Math.floorMod(key[i][j], radix) * v % radix);
+                }
+            }
+        }
+    }
+
+
+    @Override
+    public void transform(byte[] src, int srcOffset, byte[] dst, int dstOffset, int blocks) {
+        final int[] sum = new int[DIMENSION];
+        for (int b = 0; b < blocks; b++) {
+            for (int j = 0, column = 0; j < DIMENSION; j++, column += SYMBOLS) {
+                final int BASE = (column + (src[srcOffset++] & 0xFF)) * DIMENSION;
+                for (int i = 0; i < DIMENSION; i++) {
+                    sum[i] += table[BASE + i];
+                }
+            }
+            reduction.reduce(sum, DIMENSION);
+            for (int i = 0; i < DIMENSION; i++) {
+                dst[dstOffset++] = (byte) sum[i];
+                sum[i] = 0;
+            }
+        }
+    }
+
+
+    @Override
+    public void transform(ByteBuffer src, int srcIndex, ByteBuffer dst, int dstIndex, int blocks) {
+        final int[] sum = new int[DIMENSION];
+        for (int b = 0; b < blocks; b++) {
+            for (int j = 0, column = 0; j < DIMENSION; j++, column += SYMBOLS) {
+                final int BASE = (column + (src.get(srcIndex++) & 0xFF)) * DIMENSION;
+                for (int i = 0; i < DIMENSION; i++) {
+                    sum[i] += table[BASE + i];
+                }
+            }
+            reduction.reduce(sum, DIMENSION);
+            for (int i = 0; i < DIMENSION; i++) {
+                dst.put(dstIndex++, (byte) sum[i]);
+                sum[i] = 0;
+            }
+        }
+    }
+}
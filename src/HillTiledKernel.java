@@ -0,0 +1,98 @@
+import org.jscience.mathematics.vector.DimensionException;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Gemensam bas för kärnor som transformerar block i rutor om WIDTH block. En ruta transponeras så att
+ * symbol j från alla block i rutan ligger i en egen int-array, underklassen räknar ut key * ruta utan
+ * reduktion och varje summa reduceras sedan modulo radix en enda gång med HillReduction. Summorna ryms i
+ * en int (högst n * 255 * 255). Raderna är separata arrayer eftersom JIT-kompilatorn då kan ta bort
+ * indexkontrollerna och vektorisera looparna. Underklasserna skiljer sig bara i rutans bredd och i den
+ * ordning multiplikationen görs.
+ */
+public abstract class HillTiledKernel extends HillKernel {
+    protected final int[] key;
+    protected final int DIMENSION;
+    protected final int WIDTH;
+    private final HillReduction reduction;
+
+
+    /**
+     *
+     * @param key nyckeln som en nxn matris
+     * @param radix modulovärdet, högst 256
+     * @param width antal block i en ruta
+     */
+    protected HillTiledKernel(int[][] key, int radix, int width) {
+        super(radix, key.length);
+        if (radix > 256) {
+            throw new IllegalArgumentException("Radix får vara högst 256");
+        }
+        this.DIMENSION = key.length;
+        this.WIDTH = width;
+        this.reduction = HillReduction.valueOf(radix);
+        this.key = new int[DIMENSION * DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            if (key[i].length != DIMENSION) {
+                throw new DimensionException("Nyckeln måste vara en nxn matris");
+            }
+            for (int j = 0; j < DIMENSION; j++) {
+                this.key[i * DIMENSION + j] = Math.floorMod(key[i][j], radix);
+            }
+        }
+    }
+
+
+    @Override
+    public void transform(byte[] src, int srcOffset, byte[] dst, int dstOffset, int blocks) {
+        final int[][] tile = new int[DIMENSION][WIDTH];
+        final int[][] accumulator = new int[DIMENSION][WIDTH];
+        for (int b = 0; b < blocks; b += WIDTH) {
+            final int COUNT = Math.min(WIDTH, blocks - b);
+            for (int c = 0, index = srcOffset + b * DIMENSION; c < COUNT; c++) {
+                for (int j = 0; j < DIMENSION; j++) {
+                    tile[j][c] = src[index++] & 0xFF;
+                }
+            }
+            multiply(tile, accumulator);
+            for (int i = 0; i < DIMENSION; i++) {
+                final int[] row = accumulator[i];
+                reduction.reduce(row, COUNT);
+                for (int c = 0, index = dstOffset + b * DIMENSION + i; c < COUNT; c++, index += DIMENSION) {
+                    dst[index] = (byte) row[c];
+                }
+            }
+        }
+    }
+
+
+    @Override
+    public void transform(ByteBuffer src, int srcIndex, ByteBuffer dst, int dstIndex, int blocks) {
+        final int[][] tile = new int[DIMENSION][WIDTH];
+        final int[][] accumulator = new int[DIMENSION][WIDTH];
+        for (int b = 0; b < blocks; b += WIDTH) {
+            final int COUNT = Math.min(WIDTH, blocks - b);
+            for (int c = 0, index = srcIndex + b * DIMENSION; c < COUNT; c++) {
+                for (int j = 0; j < DIMENSION; j++) {
+                    tile[j][c] = src.get(index++) & 0xFF;
+                }
+            }
+            multiply(tile, accumulator);
+            for (int i = 0; i < DIMENSION; i++) {
+                final int[] row = accumulator[i];
+                reduction.reduce(row, COUNT);
+                for (int c = 0, index = dstIndex + b * DIMENSION + i; c < COUNT; c++, index += DIMENSION) {
+                    dst.put(index, (byte) row[c]);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * accumulator = key * tile utan reduktion. tile[j] och accumulator[i] är rader om WIDTH int-värden
+     * och key är nyckeln radvis.
+     */
+    protected abstract void multiply(int[][] tile, int[][] accumulator);
+}
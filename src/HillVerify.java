@@ -0,0 +1,397 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * Klassen kontrollerar att alla kärnor, strömmar och filvägar ger exakt samma resultat som referensen,
+ * det vill säga HillScalarKernel för transformen och HillStream för utfyllnad och filer. Nycklar, radix,
+ * blockstorlekar och data slumpas från --seed, så en körning med samma flaggor kan upprepas exakt.
+ *
+ * Först jämförs HillReduction med x % radix för varje radix 1 till 256: alla x i [0, 2^21), vilket täcker
+ * kärnornas summor, de 2^16 största int-värdena och 2^16 slumpade värden däremellan. Sedan väljer varje
+ * omgång radix 2 till 256 och blockstorlek 1 till 10 och jämför:
+ *
+ * - kärnor: table, lanes, gemm, codebook (när den får plats), auto och parallel mot scalar, med
+ *   arrayer och buffrar, förskjutna index och transform på plats
+ * - strömmar: HillStream, HillCipherOutputStream och HillDecipherInputStream med slumpade storlekar
+ * - filer: HillMapped, HillPipeline och HillRandomAccess
+ *
+ * Programmet avslutas med status 1 om någon jämförelse skiljer sig.
+ */
+public class HillVerify {
+    private static final int MAX_BLOCKSIZE = 10;
+    private static final int SHOWN_FAILURES = 5;
+    private static final int REDUCTION_RANGE = 1 << 21;
+    private static final int REDUCTION_EDGE = 1 << 16;
+
+    private final int rounds;
+    private final Random random;
+    private final File directory;
+    private final PrintStream out;
+    private final ForkJoinPool pool = new ForkJoinPool(3);
+    private final Map<String, long[]> results = new LinkedHashMap<>();
+    private String round;
+
+
+    /**
+     *
+     * @param options --rounds och --seed
+     * @param directory katalogen där tillfälliga filer skapas
+     */
+    public HillVerify(HillOptions options, File directory) {
+        this.rounds = options.getInt("rounds", 200);
+        this.random = new Random(options.getInt("seed", 4711));
+        this.directory = directory;
+        this.out = System.out;
+    }
+
+
+    /**
+     * Kör alla omgångar och skriver antal jämförelser och fel för varje kontroll.
+     *
+     * @return antal jämförelser som skiljer sig
+     */
+    public long run() {
+        verifyReductions();
+        try {
+            for (int r = 0; r < rounds; r++) {
+                final int RADIX = r % 8 == 0 ? 2 : r % 8 == 1 ? 26 : r % 8 == 2 ? 256 : 2 + random.nextInt(255);
+                final int BLOCKSIZE = 1 + random.nextInt(MAX_BLOCKSIZE);
+                final int[][] KEY = randomKey(RADIX, BLOCKSIZE);
+                final int[][] INVERSE = HillMatrix.inverse(KEY, RADIX);
+                this.round = String.format(Locale.ROOT, "omgång %d, radix %d, blockstorlek %d, nyckel %s",
+                        r, RADIX, BLOCKSIZE, Arrays.deepToString(KEY));
+                verifyKernels(KEY, RADIX);
+                verifyKernels(INVERSE, RADIX);
+                verifyStreams(KEY, INVERSE, RADIX);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        long failures = 0;
+        for (Map.Entry<String, long[]> result : results.entrySet()) {
+            failures += result.getValue()[1];
+            out.println(String.format(Locale.ROOT, "%-26s %8d jämförelser %6d fel",
+                    result.getKey(), result.getValue()[0], result.getValue()[1]));
+        }
+        out.println(failures == 0 ? "Alla jämförelser stämmer" : failures + " jämförelser skiljer sig");
+        return failures;
+    }
+
+
+    /**
+     * Jämför båda reduce-metoderna i HillReduction med x % radix.
+     */
+    private void verifyReductions() {
+        final int[] VALUES = new int[REDUCTION_RANGE + 2 * REDUCTION_EDGE];
+        for (int i = 0; i < REDUCTION_RANGE; i++) {
+            VALUES[i] = i;
+        }
+        for (int i = 0; i < REDUCTION_EDGE; i++) {
+            VALUES[REDUCTION_RANGE + i] = Integer.MAX_VALUE - i;
+            VALUES[REDUCTION_RANGE + REDUCTION_EDGE + i] = REDUCTION_RANGE
+                    + random.nextInt(Integer.MAX_VALUE - REDUCTION_RANGE);
+        }
+        final int[] sums = new int[VALUES.length];
+        for (int radix = 1; radix <= 256; radix++) {
+            final int RADIX = radix;
+            final HillReduction REDUCTION = HillReduction.valueOf(radix);
+            this.round = "radix " + radix + ", " + REDUCTION;
+            check("reduktion", () -> {
+                System.arraycopy(VALUES, 0, sums, 0, VALUES.length);
+                REDUCTION.reduce(sums, sums.length);
+                for (int i = 0; i < VALUES.length; i++) {
+                    if (REDUCTION.reduce(VALUES[i]) != VALUES[i] % RADIX || sums[i] != VALUES[i] % RADIX) {
+                        throw new IllegalStateException(VALUES[i] + " ger " + REDUCTION.reduce(VALUES[i]) + " och "
+                                + sums[i] + " men ska ge " + VALUES[i] % RADIX);
+                    }
+                }
+                return true;
+            });
+        }
+    }
+
+
+    /**
+     * Jämför varje kärna med HillScalarKernel på slumpade symboler.
+     */
+    private void verifyKernels(int[][] key, int radix) {
+        final int BLOCKSIZE = key.length;
+        final int BLOCKS = random.nextInt(4) == 0 ? random.nextInt(20000) : random.nextInt(300);
+        final int SRC_OFFSET = random.nextInt(BLOCKSIZE + 3);
+        final int DST_OFFSET = random.nextInt(BLOCKSIZE + 3);
+        final int LENGTH = BLOCKS * BLOCKSIZE;
+        final byte[] SRC = symbols(radix, SRC_OFFSET + LENGTH);
+        final byte[] EXPECTED = new byte[LENGTH];
+        new HillScalarKernel(key, radix).transform(SRC, SRC_OFFSET, EXPECTED, 0, BLOCKS);
+
+        final Map<String, HillKernel> kernels = new LinkedHashMap<>();
+        for (String name : new String[]{HillKernel.TABLE, HillKernel.LANES, HillKernel.GEMM, HillKernel.AUTO}) {
+            kernels.put(name, HillKernel.valueOf(key, radix, name, HillCodebookKernel.DEFAULT_LIMIT));
+        }
+        if (HillCodebookKernel.entries(radix, BLOCKSIZE, HillCodebookKernel.DEFAULT_LIMIT) > 0) {
+            kernels.put(HillKernel.CODEBOOK, HillKernel.valueOf(key, radix, HillKernel.CODEBOOK,
+                    HillCodebookKernel.DEFAULT_LIMIT));
+        }
+        kernels.put("parallel", new HillParallelKernel(kernels.get(HillKernel.TABLE), pool, 1 + random.nextInt(64)));
+
+        for (Map.Entry<String, HillKernel> entry : kernels.entrySet()) {
+            final HillKernel KERNEL = entry.getValue();
+            check("kärna " + entry.getKey(), () -> {
+                final byte[] DST = new byte[DST_OFFSET + LENGTH];
+                KERNEL.transform(SRC, SRC_OFFSET, DST, DST_OFFSET, BLOCKS);
+                return equal(EXPECTED, DST, DST_OFFSET);
+            });
+            check("kärna " + entry.getKey() + " på plats", () -> {
+                final byte[] COPY = SRC.clone();
+                KERNEL.transform(COPY, SRC_OFFSET, COPY, SRC_OFFSET, BLOCKS);
+                return equal(EXPECTED, COPY, SRC_OFFSET);
+            });
+            check("kärna " + entry.getKey() + " buffer", () -> {
+                final ByteBuffer SOURCE = ByteBuffer.allocateDirect(SRC.length);
+                SOURCE.put(SRC);
+                final ByteBuffer TARGET = ByteBuffer.allocate(DST_OFFSET + LENGTH);
+                KERNEL.transform(SOURCE, SRC_OFFSET, TARGET, DST_OFFSET, BLOCKS);
+                return equal(EXPECTED, TARGET.array(), DST_OFFSET);
+            });
+        }
+    }
+
+
+    /**
+     * Jämför strömmar och filvägar med HillStream och HillScalarKernel. Klartextens längd väljs så att
+     * utfyllnaden är mindre än radix, annars går den inte att kryptera.
+     */
+    private void verifyStreams(int[][] key, int[][] inverse, int radix) {
+        final HillKernel ENCRYPT = HillKernel.valueOf(key, radix);
+        final HillKernel DECRYPT = HillKernel.valueOf(inverse, radix);
+        final int BLOCKSIZE = key.length;
+        int length = random.nextInt(4) == 0 ? random.nextInt(300000) : random.nextInt(2000);
+        while (HillPadding.paddingFor(length, BLOCKSIZE) >= radix) {
+            length++;
+        }
+        final byte[] PLAIN = symbols(radix, length);
+        final int CHUNK = 1 + random.nextInt(1 << 16);
+        final int BUFFER = 1 + random.nextInt(1 << 13);
+
+        final byte[] CIPHER;
+        final byte[] DECRYPTED;
+        final int PADDING_VALUE;
+        try {
+            CIPHER = encrypt(new HillStream(new HillScalarKernel(key, radix), BLOCKSIZE), PLAIN);
+            final HillStream REFERENCE = new HillStream(new HillScalarKernel(inverse, radix), BLOCKSIZE);
+            final ByteArrayOutputStream BYTES = new ByteArrayOutputStream();
+            REFERENCE.decrypt(new ByteArrayInputStream(CIPHER), BYTES);
+            DECRYPTED = BYTES.toByteArray();
+            PADDING_VALUE = REFERENCE.getPaddingValue();
+        } catch (IOException | RuntimeException e) {
+            check("referens", () -> {
+                throw e;
+            });
+            return;
+        }
+        check("tur och retur", () -> DECRYPTED.length <= PLAIN.length && equal(DECRYPTED, PLAIN, 0));
+
+        check("HillStream", () -> Arrays.equals(CIPHER, encrypt(new HillStream(ENCRYPT, CHUNK), PLAIN)));
+        check("HillStream dekryptering", () -> {
+            final ByteArrayOutputStream BYTES = new ByteArrayOutputStream();
+            final HillStream STREAM = new HillStream(DECRYPT, CHUNK);
+            STREAM.decrypt(new ByteArrayInputStream(CIPHER), BYTES);
+            return Arrays.equals(DECRYPTED, BYTES.toByteArray()) && STREAM.getPaddingValue() == PADDING_VALUE;
+        });
+        check("HillCipherOutputStream", () -> {
+            final ByteArrayOutputStream BYTES = new ByteArrayOutputStream();
+            try (OutputStream stream = new HillCipherOutputStream(BYTES, ENCRYPT, BUFFER)) {
+                for (int position = 0; position < PLAIN.length; ) {
+                    if (random.nextInt(8) == 0) {
+                        stream.write(PLAIN[position++]);
+                    } else {
+                        final int LENGTH = Math.min(PLAIN.length - position, random.nextInt(3 * BUFFER));
+                        stream.write(PLAIN, position, LENGTH);
+                        position += LENGTH;
+                    }
+                }
+            }
+            return Arrays.equals(CIPHER, BYTES.toByteArray());
+        });
+        check("HillDecipherInputStream", () -> {
+            final ByteArrayOutputStream BYTES = new ByteArrayOutputStream();
+            final HillDecipherInputStream STREAM = new HillDecipherInputStream(new ByteArrayInputStream(CIPHER),
+                    DECRYPT, BUFFER);
+            final byte[] PIECE = new byte[3 * BUFFER];
+            int read = 0;
+            while (read >= 0) {
+                if (random.nextInt(8) == 0) {
+                    read = STREAM.read();
+                    if (read >= 0) {
+                        BYTES.write(read);
+                    }
+                } else {
+                    read = STREAM.read(PIECE, 0, 1 + random.nextInt(PIECE.length));
+                    if (read > 0) {
+                        BYTES.write(PIECE, 0, read);
+                    }
+                }
+            }
+            STREAM.close();
+            return Arrays.equals(DECRYPTED, BYTES.toByteArray()) && STREAM.getPaddingValue() == PADDING_VALUE;
+        });
+
+        final File PLAIN_FILE = new File(directory, "plain.bin");
+        final File CIPHER_FILE = new File(directory, "cipher.bin");
+        final File OUT_FILE = new File(directory, "out.bin");
+        check("filer", () -> {
+            Files.write(PLAIN_FILE.toPath(), PLAIN);
+            Files.write(CIPHER_FILE.toPath(), CIPHER);
+            return true;
+        });
+        check("HillMapped", () -> HillMapped.encrypt(ENCRYPT, PLAIN_FILE.getPath(), OUT_FILE.getPath()) == CIPHER.length
+                && Arrays.equals(CIPHER, Files.readAllBytes(OUT_FILE.toPath())));
+        check("HillMapped dekryptering", () -> HillMapped.decrypt(DECRYPT, CIPHER_FILE.getPath(), OUT_FILE.getPath())
+                == PADDING_VALUE && Arrays.equals(DECRYPTED, Files.readAllBytes(OUT_FILE.toPath())));
+        final int BUFFERS = 2 + random.nextInt(3);
+        check("HillPipeline", () -> HillPipeline.encrypt(ENCRYPT, PLAIN_FILE.getPath(), OUT_FILE.getPath(), CHUNK,
+                BUFFERS) == CIPHER.length && Arrays.equals(CIPHER, Files.readAllBytes(OUT_FILE.toPath())));
+        check("HillPipeline dekryptering", () -> HillPipeline.decrypt(DECRYPT, CIPHER_FILE.getPath(),
+                OUT_FILE.getPath(), CHUNK, BUFFERS) == PADDING_VALUE
+                && Arrays.equals(DECRYPTED, Files.readAllBytes(OUT_FILE.toPath())));
+        check("HillRandomAccess", () -> {
+            try (HillRandomAccess file = new HillRandomAccess(DECRYPT, CIPHER_FILE.getPath())) {
+                boolean equal = file.length() == DECRYPTED.length && file.getPaddingValue() == PADDING_VALUE;
+                for (int i = 0; i < 20 && equal; i++) {
+                    final int OFFSET = random.nextInt(DECRYPTED.length + BLOCKSIZE + 1);
+                    final int LENGTH = random.nextInt(i % 4 == 0 ? 1 << 18 : 64);
+                    final int FROM = Math.min(OFFSET, DECRYPTED.length);
+                    equal = Arrays.equals(Arrays.copyOfRange(DECRYPTED, FROM, (int) Math.min(DECRYPTED.length,
+                            (long) OFFSET + LENGTH)), file.read(OFFSET, LENGTH));
+                }
+                final int TAIL = random.nextInt(3 * BLOCKSIZE);
+                return equal && Arrays.equals(Arrays.copyOfRange(DECRYPTED, Math.max(0, DECRYPTED.length - TAIL),
+                        DECRYPTED.length), file.tail(TAIL));
+            }
+        });
+    }
+
+
+    /**
+     * En jämförelse som kan kasta ett undantag.
+     */
+    private interface Check {
+        boolean run() throws IOException;
+    }
+
+
+    /**
+     * Räknar jämförelsen och skriver ut de första felen för varje kontroll. Ett undantag räknas som fel.
+     */
+    private void check(String name, Check check) {
+        long[] result = results.get(name);
+        if (result == null) {
+            result = new long[2];
+            results.put(name, result);
+        }
+        result[0]++;
+        String error = null;
+        try {
+            if (!check.run()) {
+                error = "resultatet skiljer sig";
+            }
+        } catch (IOException | RuntimeException e) {
+            error = e.toString();
+        }
+        if (error != null && ++result[1] <= SHOWN_FAILURES) {
+            out.println("FEL " + name + " (" + round + "): " + error);
+        }
+    }
+
+
+    private static byte[] encrypt(HillStream stream, byte[] plain) throws IOException {
+        final ByteArrayOutputStream BYTES = new ByteArrayOutputStream();
+        stream.encrypt(new ByteArrayInputStream(plain), BYTES);
+        return BYTES.toByteArray();
+    }
+
+
+    /**
+     * @return true om expected finns i actual med början på offset
+     */
+    private static boolean equal(byte[] expected, byte[] actual, int offset) {
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != actual[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private byte[] symbols(int radix, int length) {
+        final byte[] SYMBOLS = new byte[length];
+        for (int i = 0; i < length; i++) {
+            SYMBOLS[i] = (byte) random.nextInt(radix);
+        }
+        return SYMBOLS;
+    }
+
+
+    /**
+     * Som HillKeys.randomKey men från den seedade slumpgeneratorn.
+     */
+    private int[][] randomKey(int radix, int dimension) {
+        final int[][] KEY = new int[dimension][dimension];
+        do {
+            for (int i = 0; i < dimension; i++) {
+                for (int j = 0; j < dimension; j++) {
+                    KEY[i][j] = random.nextInt(radix);
+                }
+            }
+        } while (!HillMatrix.isInvertible(KEY, radix));
+        return KEY;
+    }
+
+
+    public static void main(String[] args) {
+        System.out.println("HILLVERIFY");
+        HillOptions options = new HillOptions(args);
+        long failures = 0;
+        if (options.getArguments().length != 0) {
+            System.out.println("Fel antal argument.");
+            System.out.println("mata in: [--rounds=<n>] [--seed=<n>]");
+        } else {
+            File directory = null;
+            try {
+                directory = Files.createTempDirectory("hillverify").toFile();
+                failures = new HillVerify(options, directory).run();
+            } catch (IOException e) {
+                System.out.println("Något gick fel med de tillfälliga filerna: " + e.getMessage());
+                failures = 1;
+            } finally {
+                if (directory != null) {
+                    File[] files = directory.listFiles();
+                    if (files != null) {
+                        for (File file : files) {
+                            file.delete();
+                        }
+                    }
+                    directory.delete();
+                }
+            }
+        }
+        System.out.println("Programmet avslutas");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,330 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+
+/**
+ * Klassen försöker hitta dekrypteringsnyckeln till en SMS-chiffertext (radix 26, blockstorlek 3) utan att
+ * känna till klartexten. Symbol i i varje klartextblock beror bara på rad i i dekrypteringsnyckeln, så
+ * varje rad kan sökas för sig bland 26^3 kandidater. Kandidaterna poängsätts med engelska
+ * bokstavsfrekvenser över alla block, och de bästa raderna kombineras sedan till inverterbara nycklar
+ * som poängsätts med bigramfrekvenser över hela klartexten.
+ *
+ * Frekvenserna är inbyggda men kan i stället räknas fram ur en valfri text med --corpus.
+ */
+public class SmsAttack {
+    public static final int RADIX = 26;
+    public static final int BLOCK_SIZE = 3;
+    public static final int DEFAULT_TOP = 20;
+    public static final int DEFAULT_RESULTS = 5;
+    private static final int CANDIDATES = RADIX * RADIX * RADIX;
+
+    /** Bokstavsfrekvenser i engelsk text i procent, A till Z. */
+    static final double[] LETTERS = {
+            8.167, 1.492, 2.782, 4.253, 12.702, 2.228, 2.015, 6.094, 6.966, 0.153, 0.772, 4.025, 2.406,
+            6.749, 7.507, 1.929, 0.095, 5.987, 6.327, 9.056, 2.758, 0.978, 2.360, 0.150, 1.974, 0.074};
+
+    /** De vanligaste bigrammen i engelsk text och deras frekvenser i procent. */
+    private static final String[] BIGRAMS = {
+            "TH", "HE", "IN", "ER", "AN", "RE", "ON", "AT", "EN", "ND", "TI", "ES", "OR", "TE", "OF", "ED",
+            "IS", "IT", "AL", "AR", "ST", "TO", "NT", "NG", "SE", "HA", "AS", "OU", "IO", "LE", "VE", "CO",
+            "ME", "DE", "HI", "RI", "RO", "IC", "NE", "EA", "RA", "CE", "LI", "CH", "LL", "BE", "MA", "SI",
+            "OM", "UR"};
+    private static final double[] BIGRAM_FREQUENCIES = {
+            3.56, 3.07, 2.43, 2.05, 1.99, 1.85, 1.76, 1.49, 1.45, 1.35, 1.34, 1.34, 1.28, 1.20, 1.17, 1.17,
+            1.13, 1.12, 1.09, 1.07, 1.05, 1.04, 1.04, 0.95, 0.93, 0.93, 0.87, 0.87, 0.83, 0.83, 0.83, 0.79,
+            0.79, 0.76, 0.76, 0.73, 0.73, 0.70, 0.69, 0.69, 0.69, 0.65, 0.62, 0.60, 0.58, 0.58, 0.57, 0.55,
+            0.55, 0.54};
+
+    private final double[] unigram = new double[RADIX];
+    private final double[] bigram = new double[RADIX * RADIX];
+    private final ForkJoinPool pool;
+
+
+    /**
+     * Använder de inbyggda frekvenserna. Bigram som inte finns i listan uppskattas som hälften av
+     * produkten av bokstävernas frekvenser.
+     *
+     * @param threads antal trådar
+     */
+    public SmsAttack(int threads) {
+        this.pool = new ForkJoinPool(threads);
+        for (int x = 0; x < RADIX; x++) {
+            unigram[x] = Math.log(LETTERS[x] / 100);
+            for (int y = 0; y < RADIX; y++) {
+                bigram[x * RADIX + y] = Math.log(LETTERS[x] / 100 * LETTERS[y] / 100 / 2);
+            }
+        }
+        for (int i = 0; i < BIGRAMS.length; i++) {
+            bigram[(BIGRAMS[i].charAt(0) - 'A') * RADIX + BIGRAMS[i].charAt(1) - 'A'] = Math.log(BIGRAM_FREQUENCIES[i] / 100);
+        }
+    }
+
+
+    /**
+     * Räknar fram frekvenserna ur corpus. Allt utom bokstäverna A-Z och a-z hoppas över, så bigram räknas
+     * även över ordgränser som i en SMS-klartext utan mellanslag.
+     *
+     * @param threads antal trådar
+     * @param corpus en text på det språk som klartexten antas vara skriven på
+     */
+    public SmsAttack(int threads, byte[] corpus) {
+        this.pool = new ForkJoinPool(threads);
+        long[] letters = new long[RADIX];
+        long[] pairs = new long[RADIX * RADIX];
+        int previous = -1;
+        for (byte b : corpus) {
+            final int LETTER = Character.toUpperCase((char) (b & 0xFF)) - 'A';
+            if (LETTER >= 0 && LETTER < RADIX) {
+                letters[LETTER]++;
+                if (previous >= 0) {
+                    pairs[previous * RADIX + LETTER]++;
+                }
+                previous = LETTER;
+            }
+        }
+        final long TOTAL = Arrays.stream(letters).sum();
+        final long PAIRS = Arrays.stream(pairs).sum();
+        for (int x = 0; x < RADIX; x++) {
+            unigram[x] = Math.log((letters[x] + 1.0) / (TOTAL + RADIX));
+        }
+        for (int xy = 0; xy < RADIX * RADIX; xy++) {
+            bigram[xy] = Math.log((pairs[xy] + 1.0) / (PAIRS + RADIX * RADIX));
+        }
+    }
+
+
+    /**
+     * En dekrypteringsnyckel och klartexten den ger.
+     */
+    public static class Result {
+        final int[][] inverseKey;
+        final double score;
+        final byte[] plainText;
+
+        Result(int[][] inverseKey, double score, byte[] plainText) {
+            this.inverseKey = inverseKey;
+            this.score = score;
+            this.plainText = plainText;
+        }
+
+        public int[][] getInverseKey() {
+            return inverseKey;
+        }
+
+        /**
+         * @return log-sannolikheten för klartexten, högre är bättre
+         */
+        public double getScore() {
+            return score;
+        }
+
+        /**
+         * @return klartexten som symboler 0 till 25
+         */
+        public byte[] getPlainText() {
+            return plainText;
+        }
+    }
+
+
+    /**
+     * @param cipherText chiffertexten som symboler 0 till 25, ett helt antal block
+     * @param top antal rader per position som kombineras till nycklar
+     * @param results antal nycklar som returneras
+     * @return de bästa nycklarna, bäst först
+     */
+    public List<Result> attack(byte[] cipherText, int top, int results) throws InterruptedException {
+        final int BLOCKS = cipherText.length / BLOCK_SIZE;
+        final int[] c0 = new int[BLOCKS];
+        final int[] c1 = new int[BLOCKS];
+        final int[] c2 = new int[BLOCKS];
+        for (int b = 0; b < BLOCKS; b++) {
+            c0[b] = cipherText[b * BLOCK_SIZE];
+            c1[b] = cipherText[b * BLOCK_SIZE + 1];
+            c2[b] = cipherText[b * BLOCK_SIZE + 2];
+        }
+        final double[] rowScores = new double[CANDIDATES];
+        invoke(() -> IntStream.range(0, CANDIDATES).parallel().forEach(row -> {
+            final int A = row / (RADIX * RADIX);
+            final int B = row / RADIX % RADIX;
+            final int C = row % RADIX;
+            if (HillMatrix.gcd(HillMatrix.gcd(A, B), HillMatrix.gcd(C, RADIX)) != 1) {
+                rowScores[row] = Double.NEGATIVE_INFINITY;
+                return;
+            }
+            final int[] counts = new int[RADIX];
+            for (int b = 0; b < BLOCKS; b++) {
+                counts[(A * c0[b] + B * c1[b] + C * c2[b]) % RADIX]++;
+            }
+            double score = 0;
+            for (int x = 0; x < RADIX; x++) {
+                score += counts[x] * unigram[x];
+            }
+            rowScores[row] = score;
+        }));
+
+        final int[] rows = best(rowScores, Math.min(top, CANDIDATES));
+        final int TOP = rows.length;
+        final byte[][] letters = new byte[TOP][BLOCKS];
+        for (int t = 0; t < TOP; t++) {
+            final int A = rows[t] / (RADIX * RADIX);
+            final int B = rows[t] / RADIX % RADIX;
+            final int C = rows[t] % RADIX;
+            for (int b = 0; b < BLOCKS; b++) {
+                letters[t][b] = (byte) ((A * c0[b] + B * c1[b] + C * c2[b]) % RADIX);
+            }
+        }
+
+        final double[] keyScores = new double[TOP * TOP * TOP];
+        invoke(() -> IntStream.range(0, keyScores.length).parallel().forEach(index -> {
+            final int I = index / (TOP * TOP);
+            final int J = index / TOP % TOP;
+            final int K = index % TOP;
+            if (I == J || J == K || I == K || !HillMatrix.isInvertible(key(rows, I, J, K), RADIX)) {
+                keyScores[index] = Double.NEGATIVE_INFINITY;
+                return;
+            }
+            final byte[] x = letters[I];
+            final byte[] y = letters[J];
+            final byte[] z = letters[K];
+            double score = rowScores[rows[I]] + rowScores[rows[J]] + rowScores[rows[K]];
+            for (int b = 0; b < BLOCKS; b++) {
+                score += bigram[x[b] * RADIX + y[b]] + bigram[y[b] * RADIX + z[b]];
+                if (b + 1 < BLOCKS) {
+                    score += bigram[z[b] * RADIX + x[b + 1]];
+                }
+            }
+            keyScores[index] = score;
+        }));
+
+        List<Result> best = new ArrayList<>();
+        for (int index : best(keyScores, Math.min(results, keyScores.length))) {
+            if (keyScores[index] == Double.NEGATIVE_INFINITY) {
+                break;
+            }
+            final int I = index / (TOP * TOP);
+            final int J = index / TOP % TOP;
+            final int K = index % TOP;
+            byte[] plainText = new byte[BLOCKS * BLOCK_SIZE];
+            for (int b = 0; b < BLOCKS; b++) {
+                plainText[b * BLOCK_SIZE] = letters[I][b];
+                plainText[b * BLOCK_SIZE + 1] = letters[J][b];
+                plainText[b * BLOCK_SIZE + 2] = letters[K][b];
+            }
+            best.add(new Result(key(rows, I, J, K), keyScores[index], plainText));
+        }
+        return best;
+    }
+
+
+    private void invoke(Runnable task) throws InterruptedException {
+        try {
+            pool.submit(task).get();
+        } catch (ExecutionException e) {
+            throw HillAttack.unchecked(e);
+        }
+    }
+
+
+    private static int[][] key(int[] rows, int i, int j, int k) {
+        int[][] key = new int[BLOCK_SIZE][];
+        int r = 0;
+        for (int row : new int[]{rows[i], rows[j], rows[k]}) {
+            key[r++] = new int[]{row / (RADIX * RADIX), row / RADIX % RADIX, row % RADIX};
+        }
+        return key;
+    }
+
+
+    /**
+     * @return index för de count högsta värdena i scores, högst först
+     */
+    private static int[] best(double[] scores, int count) {
+        final int[] best = new int[count];
+        int size = 0;
+        for (int index = 0; index < scores.length; index++) {
+            if (size == count && scores[index] <= scores[best[size - 1]]) {
+                continue;
+            }
+            int position = size < count ? size++ : size - 1;
+            while (position > 0 && scores[best[position - 1]] < scores[index]) {
+                best[position] = best[position - 1];
+                position--;
+            }
+            best[position] = index;
+        }
+        return Arrays.copyOf(best, size);
+    }
+
+
+    /**
+     * @return symbolerna 0 till 25 för bokstäverna A-Z i text, avkortade till hela block
+     */
+    static byte[] symbolsOf(byte[] text) {
+        byte[] symbols = new byte[text.length];
+        int length = 0;
+        for (byte b : text) {
+            if (b >= 'A' && b <= 'Z') {
+                symbols[length++] = (byte) (b - 'A');
+            }
+        }
+        return Arrays.copyOf(symbols, length - length % BLOCK_SIZE);
+    }
+
+
+    public static void main(String[] args) {
+        System.out.println("SMSATTACK");
+        HillOptions options = new HillOptions(args);
+        args = options.getArguments();
+        if (args.length != 2) {
+            System.out.println("Fel antal argument.");
+            System.out.println("mata in: <cipherfile> <invkeyfile>");
+            System.out.println("flaggor: --threads=<n> --top=<rader> --results=<n> --corpus=<textfil>");
+            System.out.println("Försök igen");
+        } else {
+            try {
+                final int THREADS = options.getInt("threads", Runtime.getRuntime().availableProcessors());
+                SmsAttack attack = options.has("corpus")
+                        ? new SmsAttack(THREADS, Files.readAllBytes(Paths.get(options.get("corpus", ""))))
+                        : new SmsAttack(THREADS);
+                byte[] cipherText = symbolsOf(Files.readAllBytes(Paths.get(args[0])));
+                if (cipherText.length == 0) {
+                    System.out.println("Filen innehåller inga hela block att analysera.");
+                } else {
+                    final long START = System.nanoTime();
+                    List<Result> results = attack.attack(cipherText, options.getInt("top", DEFAULT_TOP),
+                            options.getInt("results", DEFAULT_RESULTS));
+                    System.out.println(results.size() + " nycklar på " + (System.nanoTime() - START) / 1000000 + " ms");
+                    for (Result result : results) {
+                        StringBuilder text = new StringBuilder();
+                        for (int i = 0; i < Math.min(60, result.plainText.length); i++) {
+                            text.append((char) ('A' + result.plainText[i]));
+                        }
+                        System.out.println(String.format(Locale.ROOT, "%10.1f %s %s", result.score,
+                                Arrays.deepToString(result.inverseKey), text));
+                    }
+                    if (!results.isEmpty()) {
+                        HillKeys.writeKeyToFile(results.get(0).inverseKey, args[1]);
+                        System.out.println("Den bästa dekrypteringsnyckeln skrevs till " + args[1]);
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                System.out.println("Filen " + e.getFile() + " finns inte.");
+            } catch (IOException e) {
+                System.out.println("Något gick fel när filerna lästes: " + e.getMessage());
+            } catch (InterruptedException e) {
+                System.out.println("Sökningen avbröts.");
+            }
+        }
+        System.out.println("Programmet avslutas");
+    }
+}
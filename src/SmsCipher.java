@@ -1,13 +1,12 @@
-import org.jscience.mathematics.number.LargeInteger;
 import org.jscience.mathematics.number.Rational;
 import org.jscience.mathematics.vector.DenseMatrix;
-import org.jscience.mathematics.vector.DenseVector;
 import org.jscience.mathematics.vector.DimensionException;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Paths;
+import java.util.Arrays;
 
 /**
  * Created by mikaelnorberg on 2017-03-31.
@@ -18,9 +17,9 @@ import java.nio.file.Paths;
 public class SmsCipher {
 
 
-    private final DenseMatrix<Rational> plainText;
-    private final DenseMatrix<Rational> key;
-    private final DenseMatrix<Rational> cipher;
+    private final byte[] plainText;
+    private final HillKernel key;
+    private final byte[] cipher;
 
     /**
      *
@@ -31,25 +30,53 @@ public class SmsCipher {
      * @param cipherFile filen att skriva den krypterade texten till
      */
     public SmsCipher(int radix, int blockSize, String keyFile, String plainFile, String cipherFile) {
+        this(radix, blockSize, keyFile, plainFile, cipherFile, new HillOptions(new String[0]));
+    }
+
 
+    /**
+     * @param radix modulovärdet
+     * @param blockSize storleken på ett block
+     * @param keyFile filen med nyckeln
+     * @param plainFile filen med texten som ska krypteras
+     * @param cipherFile filen att skriva den krypterade texten till
+     * @param options flaggor, --threads anger antal trådar som krypterar blocken, --stats skriver ut tid
+     *                och MB/s per fas och --normalize=strict|strip|map [--filler=<A-Z>] anger hur tecken
+     *                utanför A till Z hanteras, se SmsNormalizer
+     */
+    public SmsCipher(int radix, int blockSize, String keyFile, String plainFile, String cipherFile,
+                     HillOptions options) {
+        final HillStats STATS = new HillStats(radix, blockSize);
+        final SmsNormalizer NORMALIZER = normalizerOf(options);
+        HillStats.Phase phase = STATS.begin(HillStats.READ);
         byte[] plainText = plainTextBlockSequence(blockSize, plainFile);
-        this.plainText = getPlainTextMatrix(plainText, blockSize);
-        this.key = getKeyFrom(keyFile);
-        this.cipher = encryptPlain(radix);
+        phase.end(plainText.length);
+        phase = STATS.begin(HillStats.CHECK);
+        this.plainText = getPlainTextSymbols(plainText, blockSize, NORMALIZER);
+        phase.end(plainText.length);
+        if (!SmsNormalizer.STRICT.equals(NORMALIZER.getPolicy())) {
+            System.out.println(NORMALIZER);
+        }
+        phase = STATS.begin(HillStats.KEY);
+        this.key = loadKernel(keyFile, radix, blockSize, options);
+        phase.end(0);
+        phase = STATS.begin(HillStats.TRANSFORM);
+        this.cipher = encryptPlain(blockSize);
+        phase.end(this.cipher.length);
+        phase = STATS.begin(HillStats.WRITE);
         writeCipherToFile(cipherFile);
+        phase.end(this.cipher.length);
+        if (options.has("stats")) {
+            STATS.print(System.out);
+        }
     }
 
 
     private void writeCipherToFile(String cipherFile) {
 
-        final int ROWS = this.cipher.getNumberOfRows();
-        final int COLUMNS = this.cipher.getNumberOfColumns();
-        final byte[] CIPHER = new byte[COLUMNS * ROWS];
-        int index = 0;
-        for (int i = 0; i < COLUMNS; i++) {
-            for (int j = 0; j < ROWS; j++) {
-                CIPHER[index++] = this.cipher.get(j, i).getDividend().plus(65).byteValue();
-            }
+        final byte[] CIPHER = new byte[this.cipher.length];
+        for (int i = 0; i < CIPHER.length; i++) {
+            CIPHER[i] = (byte) (this.cipher[i] + 65);
         }
         try (FileOutputStream fos = new FileOutputStream(cipherFile)){
             DataOutputStream output = new DataOutputStream(fos);
@@ -66,55 +93,66 @@ public class SmsCipher {
         }
     }
 
-    private DenseMatrix<Rational> encryptPlain(int radix){
-        final int COLUMNS = this.plainText.getNumberOfColumns();
-        @SuppressWarnings("unchecked")
-        DenseVector<Rational>[] columns = new DenseVector[COLUMNS];
-        for (int i = 0; i < COLUMNS; i++){
-            columns[i] = encrypt(radix, this.plainText.getColumn(i));
+    private SmsNormalizer normalizerOf(HillOptions options) {
+        SmsNormalizer normalizer = null;
+        try {
+            final String FILLER = options.get("filler", String.valueOf(SmsNormalizer.DEFAULT_FILLER));
+            normalizer = new SmsNormalizer(options.get("normalize", SmsNormalizer.STRICT),
+                    FILLER.length() == 1 ? FILLER.charAt(0) : '?');
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Tillåtna värden är --normalize=strict, --normalize=strip och --normalize=map [--filler=<A-Z>]");
+            System.out.println();
+            System.out.println("Kryptering avbruten. programmet avslutas");
+            System.exit(0);
         }
-        return collect(columns);
+        return normalizer;
     }
 
-
-    private DenseMatrix<Rational> collect(DenseVector<Rational>[] allColumns){
-        Rational[][] matrix = new Rational[this.plainText.getNumberOfRows()][this.plainText.getNumberOfColumns()];
-        for(int i = 0; i < allColumns.length; i++){
-            for(int j = 0; j < allColumns[i].getDimension(); j++){
-                matrix[j][i] = allColumns[i].get(j);
-            }
-        }
-        return DenseMatrix.valueOf(matrix);
+    private byte[] encryptPlain(int blockSize){
+        final byte[] CIPHER = new byte[this.plainText.length];
+        this.key.transform(this.plainText, 0, CIPHER, 0, this.plainText.length / blockSize);
+        return CIPHER;
     }
 
 
-    private DenseVector<Rational> encrypt(int radix, DenseVector<Rational> column){
-        Rational[] tempVector = null;
-        try{
-            DenseVector<Rational> plainKeyProduct = this.key.times(column);
+    private HillKernel loadKernel(String keyFile, int radix, int blockSize, HillOptions options) {
+        return HillKeyCache.getInstance().get(keyFile, HillKeyCache.variantOf("key", radix, blockSize, options),
+                () -> createKernel(getKeyFrom(keyFile, radix), radix, blockSize, options));
+    }
 
-            final int DIMENSIONS = plainKeyProduct.getDimension();
-            tempVector = new Rational[DIMENSIONS];
 
-            for(int i = 0; i < DIMENSIONS; i++){
-                tempVector[i] = Rational.valueOf(plainKeyProduct.get(i).getDividend().mod(LargeInteger.valueOf(radix)),
-                        LargeInteger.ONE);
+    private HillKernel createKernel(int[][] key, int radix, int blockSize, HillOptions options){
+        HillKernel kernel = null;
+        try{
+            kernel = HillKernel.valueOf(HillKernel.keyOf(key, radix, blockSize), radix,
+                    options.get("kernel", HillKernel.AUTO), options.getInt("codebook", HillCodebookKernel.DEFAULT_LIMIT));
+            if (kernel instanceof HillCodebookKernel) {
+                System.out.println(kernel);
             }
+            kernel = HillParallelKernel.valueOf(kernel,
+                    options.getInt("threads", 1), options.getInt("split", HillParallelKernel.DEFAULT_MIN_BLOCKS));
         } catch (DimensionException e) {
             System.out.println("Nyckeln måste ha dimensionen nxn och blockstorleken måste vara nx1");
             System.out.println("Försök igen.");
             System.out.println();
             System.out.println("Programmet avslutas");
             System.exit(0);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Tillåtna värden är --kernel=auto, --kernel=scalar, --kernel=table, --kernel=lanes, --kernel=gemm och --kernel=codebook");
+            System.out.println();
+            System.out.println("Programmet avslutas");
+            System.exit(0);
         }
-        return DenseVector.valueOf(tempVector);
+        return kernel;
     }
 
 
-    private DenseMatrix<Rational> getKeyFrom(String keyFile) {
-        String key = null;
+    private int[][] getKeyFrom(String keyFile, int radix) {
+        byte[] key = null;
         try {
-            key = new String(Files.readAllBytes(Paths.get(keyFile)));
+            key = Files.readAllBytes(Paths.get(keyFile));
             } catch (OutOfMemoryError e){
                 System.out.println("Inte tillräckligt med minne.");
                 System.out.println("Försök igen.");
@@ -138,8 +176,30 @@ public class SmsCipher {
             System.out.println("Programmet avslutas");
             System.exit(0);
         }
+        if (HillKeyFile.isBinary(key)) {
+            return getBinaryKey(key, keyFile, radix);
+        }
+        return HillKernel.keyOf(createKeyMatrix(new String(key)), radix);
+    }
 
-        return createKeyMatrix(key);
+
+    private int[][] getBinaryKey(byte[] data, String keyFile, int radix) {
+        HillKeyFile keys = null;
+        try {
+            keys = HillKeyFile.valueOf(data);
+        } catch (IOException e) {
+            System.out.println(e.getMessage() + ": " + keyFile);
+            System.out.println();
+            System.out.println("Programmet avslutas");
+            System.exit(0);
+        }
+        if (keys.getRadix() != radix) {
+            System.out.println("Nyckeln i " + keyFile + " är skapad för radix " + keys.getRadix());
+            System.out.println();
+            System.out.println("Programmet avslutas");
+            System.exit(0);
+        }
+        return keys.getKey();
     }
 
     private DenseMatrix<Rational> createKeyMatrix(String key) {
@@ -179,29 +239,25 @@ public class SmsCipher {
         return theKey;
     }
 
-    private DenseMatrix<Rational> getPlainTextMatrix(byte[] plainText, int blockSize) {
-        Rational[][] plainMatrix = new Rational[blockSize][plainText.length/blockSize];
-        final int COLUMNS = blockSize;
-        final int ROWS = plainText.length/blockSize;
-        Rational element;
-        Rational upperLimit = Rational.valueOf(25,1);
-        int offset = 0;
-        for (int i = 0; i < ROWS; i++){
-            for (int j = 0; j < COLUMNS; j++){
-                element = Rational.valueOf(LargeInteger.valueOf(plainText, offset++, 1).minus(65),
-                        LargeInteger.ONE);
-                plainMatrix[j][i] = element;
-                if(element.isNegative() || element.isLargerThan(upperLimit)){
-                    System.out.println("Endast tecken A till Z är tillåtna i plaintexten.");
-                    System.out.println("Försök igen med tillåtna värden.");
-                    System.out.println();
-                    System.out.println("Kryptering avbruten. programmet avslutas");
-                    System.exit(0);
-
-                }
-            }
+    /**
+     * Översätter texten till symboler på plats. Med policyn strict kontrolleras bara de hela blocken, som
+     * tidigare, och ett ofullständigt sista block tas alltid bort.
+     */
+    private byte[] getPlainTextSymbols(byte[] plainText, int blockSize, SmsNormalizer normalizer) {
+        final int LENGTH = SmsNormalizer.STRICT.equals(normalizer.getPolicy())
+                ? plainText.length - plainText.length % blockSize : plainText.length;
+        int count = 0;
+        try {
+            count = normalizer.normalize(plainText, LENGTH, plainText);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Endast tecken A till Z är tillåtna i plaintexten.");
+            System.out.println("Försök igen med tillåtna värden eller med --normalize=strip eller --normalize=map.");
+            System.out.println();
+            System.out.println("Kryptering avbruten. programmet avslutas");
+            System.exit(0);
         }
-        return DenseMatrix.valueOf(plainMatrix);
+        final int SIZE = count - count % blockSize;
+        return SIZE == plainText.length ? plainText : Arrays.copyOf(plainText, SIZE);
     }
 
     private byte[] plainTextBlockSequence(int blockSize, String fileName){
@@ -214,13 +270,9 @@ public class SmsCipher {
                 System.out.println("Kryptering avbruten. programmet avslutas");
                 System.exit(0);
             }
-            final int CIPHERSIZE = FILESIZE - (FILESIZE % blockSize);
-
             plainText = new byte[FILESIZE];
             DataInputStream input  = new DataInputStream(fis);
-            for(int i = 0; i < CIPHERSIZE; i++) {
-                plainText[i] = input.readByte();
-            }
+            input.readFully(plainText);
             System.out.println();
             } catch (FileNotFoundException e) {
                 System.out.println("Filen " + fileName + " gick inte att öppna.");
@@ -245,9 +297,14 @@ public class SmsCipher {
 
     public static void main(String[] args){
         System.out.println("SMSCIPHER");
+        HillOptions options = new HillOptions(args);
+        args = options.getArguments();
         if(args.length != 5) {
             System.out.println("Fel antal argument.");
             System.out.println("mata in: <radix> <blocksize> <keyfile> <plainfile> <cipherfile>");
+            System.out.println("flaggor: --threads=<n> [--split=<block>] --stats");
+            System.out.println("         --normalize=<strict|strip|map> [--filler=<A-Z>]");
+            System.out.println("         --kernel=<auto|scalar|table|lanes|gemm|codebook> [--codebook=<block>]");
         }  else {
             int radix;
             int blockSize;
@@ -265,7 +322,7 @@ public class SmsCipher {
                         System.out.println("Enda tillåtna värde på <blocksize> = 3");
                         System.out.println("Kryptering avbruten försök igen");
                     } else {
-                        new SmsCipher(radix, blockSize, keyFile, plainFile, cipherFile);
+                        new SmsCipher(radix, blockSize, keyFile, plainFile, cipherFile, options);
                         System.out.println("Kryptering lyckad");
                     }
 
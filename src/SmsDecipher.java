@@ -1,13 +1,12 @@
-import org.jscience.mathematics.number.LargeInteger;
 import org.jscience.mathematics.number.Rational;
 import org.jscience.mathematics.vector.DenseMatrix;
-import org.jscience.mathematics.vector.DenseVector;
 import org.jscience.mathematics.vector.DimensionException;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Paths;
+import java.util.Arrays;
 
 /**
  * Created by mikaelnorberg on 2017-03-31.
@@ -17,9 +16,9 @@ import java.nio.file.Paths;
  */
 public class SmsDecipher {
 
-    private final DenseMatrix<Rational> cipherText;
-    private final DenseMatrix<Rational> key;
-    private final DenseMatrix<Rational> plainText;
+    private final byte[] cipherText;
+    private final HillKernel key;
+    private final byte[] plainText;
 
     /**
      * @param radix modulovärdet
@@ -29,73 +28,114 @@ public class SmsDecipher {
      * @param cipherFile filen med texten som ska dekrypteras
      */
     public SmsDecipher(int radix, int blockSize, String keyFile, String plainFile, String cipherFile) {
+        this(radix, blockSize, keyFile, plainFile, cipherFile, new HillOptions(new String[0]));
+    }
+
+
+    /**
+     * @param radix modulovärdet
+     * @param blockSize storleken på ett block
+     * @param keyFile filen med nyckeln
+     * @param plainFile filen att skriva den dekrypterade texten till
+     * @param cipherFile filen med texten som ska dekrypteras
+     * @param options flaggor, --threads anger antal trådar som dekrypterar blocken, --stats skriver ut tid
+     *                och MB/s per fas och --normalize=strict|strip anger hur tecken utanför A till Z
+     *                hanteras, se SmsNormalizer. map ger inte tillbaka en chiffertext som ändrats och
+     *                godtas därför inte vid dekryptering
+     */
+    public SmsDecipher(int radix, int blockSize, String keyFile, String plainFile, String cipherFile,
+                       HillOptions options) {
+        final HillStats STATS = new HillStats(radix, blockSize);
+        final SmsNormalizer NORMALIZER = normalizerOf(options);
+        HillStats.Phase phase = STATS.begin(HillStats.READ);
         byte[] cipherText = cipherTextBlockSequence(cipherFile);
-        this.cipherText = getCipherTextMatrix(cipherText, blockSize);
-        this.key = getKeyFrom(keyFile);
-        this.plainText = decryptCipher(radix);
+        phase.end(cipherText.length);
+        phase = STATS.begin(HillStats.CHECK);
+        this.cipherText = getCipherTextSymbols(cipherText, blockSize, NORMALIZER);
+        phase.end(cipherText.length);
+        if (!SmsNormalizer.STRICT.equals(NORMALIZER.getPolicy())) {
+            System.out.println(NORMALIZER);
+        }
+        phase = STATS.begin(HillStats.KEY);
+        this.key = loadKernel(keyFile, radix, blockSize, options);
+        phase.end(0);
+        phase = STATS.begin(HillStats.TRANSFORM);
+        this.plainText = decryptCipher(blockSize);
+        phase.end(this.plainText.length);
+        phase = STATS.begin(HillStats.WRITE);
         writePlainToFile(plainFile);
+        phase.end(this.plainText.length);
+        if (options.has("stats")) {
+            STATS.print(System.out);
+        }
     }
 
 
 
 
-    private DenseMatrix<Rational> decryptCipher(int radix){
-        final int COLUMNS = this.cipherText.getNumberOfColumns();
-        @SuppressWarnings("unchecked")
-        DenseVector<Rational>[] columns = new DenseVector[COLUMNS];
-        for (int i = 0; i < COLUMNS; i++){
-            columns[i] = decrypt(radix, this.cipherText.getColumn(i));
+    private SmsNormalizer normalizerOf(HillOptions options) {
+        SmsNormalizer normalizer = null;
+        try {
+            final String FILLER = options.get("filler", String.valueOf(SmsNormalizer.DEFAULT_FILLER));
+            normalizer = new SmsNormalizer(options.get("normalize", SmsNormalizer.STRICT),
+                    FILLER.length() == 1 ? FILLER.charAt(0) : '?');
+            if (SmsNormalizer.MAP.equals(normalizer.getPolicy())) {
+                throw new IllegalArgumentException("--normalize=map kan inte användas vid dekryptering");
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Tillåtna värden är --normalize=strict och --normalize=strip");
+            System.out.println();
+            System.out.println("Dekryptering avbruten. programmet avslutas");
+            System.exit(0);
         }
-        return collect(columns);
+        return normalizer;
     }
 
+    private byte[] decryptCipher(int blockSize){
+        final byte[] PLAIN = new byte[this.cipherText.length];
+        this.key.transform(this.cipherText, 0, PLAIN, 0, this.cipherText.length / blockSize);
+        return PLAIN;
+    }
 
-    private DenseMatrix<Rational> collect(DenseVector<Rational>[] allColumns){
-        Rational[][] matrix = new Rational[this.cipherText.getNumberOfRows()][this.cipherText.getNumberOfColumns()];
-        for(int i = 0; i < allColumns.length; i++){
-            for(int j = 0; j < allColumns[i].getDimension(); j++){
-                matrix[j][i] = allColumns[i].get(j);
-            }
-        }
-        return DenseMatrix.valueOf(matrix);
+
+    private HillKernel loadKernel(String keyFile, int radix, int blockSize, HillOptions options) {
+        return HillKeyCache.getInstance().get(keyFile, HillKeyCache.variantOf("inverse", radix, blockSize, options),
+                () -> createKernel(getKeyFrom(keyFile, radix), radix, blockSize, options));
     }
 
 
-    private DenseVector<Rational> decrypt(int radix, DenseVector<Rational> column){
-        Rational[] tempVector = null;
-        try {
-            DenseVector<Rational> cipherKeyProduct = this.key.times(column);
-            final int DIMENSIONS = cipherKeyProduct.getDimension();
-            tempVector = new Rational[DIMENSIONS];
-            for (int i = 0; i < DIMENSIONS; i++) {
-                tempVector[i] = Rational.valueOf(cipherKeyProduct.get(i).getDividend().mod(LargeInteger.valueOf(radix)),
-                        LargeInteger.ONE);
+    private HillKernel createKernel(int[][] key, int radix, int blockSize, HillOptions options){
+        HillKernel kernel = null;
+        try{
+            kernel = HillKernel.valueOf(HillKernel.keyOf(key, radix, blockSize), radix,
+                    options.get("kernel", HillKernel.AUTO), options.getInt("codebook", HillCodebookKernel.DEFAULT_LIMIT));
+            if (kernel instanceof HillCodebookKernel) {
+                System.out.println(kernel);
             }
+            kernel = HillParallelKernel.valueOf(kernel,
+                    options.getInt("threads", 1), options.getInt("split", HillParallelKernel.DEFAULT_MIN_BLOCKS));
         } catch (DimensionException e) {
             System.out.println("Nyckeln måste ha dimensionen nxn och blockstorleken måste vara nx1");
             System.out.println("Försök igen.");
             System.out.println();
             System.out.println("Programmet avslutas");
             System.exit(0);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Tillåtna värden är --kernel=auto, --kernel=scalar, --kernel=table, --kernel=lanes, --kernel=gemm och --kernel=codebook");
+            System.out.println();
+            System.out.println("Programmet avslutas");
+            System.exit(0);
         }
-        return DenseVector.valueOf(tempVector);
+        return kernel;
     }
 
 
     private void writePlainToFile(String plainFile) {
-        final int ROWS = this.plainText.getNumberOfRows();
-        final int COLUMNS = this.plainText.getNumberOfColumns();
-        final int SIZE = COLUMNS * ROWS;
-        byte[] plain = new byte[SIZE];
-        int index = 0;
-        for (int i = 0; i < COLUMNS; i++) {
-            for (int j = 0; j < ROWS; j++) {
-                if (index >= plain.length) {
-                    break;
-                } else {
-                    plain[index++] = this.plainText.get(j, i).getDividend().plus(65).byteValue();
-                }
-            }
+        byte[] plain = new byte[this.plainText.length];
+        for (int i = 0; i < plain.length; i++) {
+            plain[i] = (byte) (this.plainText[i] + 65);
         }
         try (FileOutputStream fos = new FileOutputStream(plainFile)){
             DataOutputStream output = new DataOutputStream(fos);
@@ -113,10 +153,10 @@ public class SmsDecipher {
     }
 
 
-    private DenseMatrix<Rational> getKeyFrom(String keyFile) {
-        String key = null;
+    private int[][] getKeyFrom(String keyFile, int radix) {
+        byte[] key = null;
         try {
-            key = new String(Files.readAllBytes(Paths.get(keyFile)));
+            key = Files.readAllBytes(Paths.get(keyFile));
         } catch (OutOfMemoryError e){
             System.out.println("Inte tillräckligt med minne.");
             System.out.println("Försök igen.");
@@ -140,7 +180,30 @@ public class SmsDecipher {
             System.out.println("Programmet avslutas");
             System.exit(0);
         }
-        return createKeyMatrix(key);
+        if (HillKeyFile.isBinary(key)) {
+            return getBinaryKey(key, keyFile, radix);
+        }
+        return HillKernel.keyOf(createKeyMatrix(new String(key)), radix);
+    }
+
+
+    private int[][] getBinaryKey(byte[] data, String keyFile, int radix) {
+        HillKeyFile keys = null;
+        try {
+            keys = HillKeyFile.valueOf(data);
+        } catch (IOException e) {
+            System.out.println(e.getMessage() + ": " + keyFile);
+            System.out.println();
+            System.out.println("Programmet avslutas");
+            System.exit(0);
+        }
+        if (keys.getRadix() != radix) {
+            System.out.println("Nyckeln i " + keyFile + " är skapad för radix " + keys.getRadix());
+            System.out.println();
+            System.out.println("Programmet avslutas");
+            System.exit(0);
+        }
+        return keys.getInverseKey();
     }
 
     private DenseMatrix<Rational> createKeyMatrix(String key) {
@@ -181,31 +244,27 @@ public class SmsDecipher {
     }
 
 
-    private DenseMatrix<Rational> getCipherTextMatrix(byte[] plainText, int blockSize) {
-        Rational[][] plainMatrix = new Rational[blockSize][plainText.length/blockSize];
-        final int ROWS = blockSize;
-        final int COLUMNS = plainText.length/blockSize;
-        Rational element;
-        Rational upperLimit = Rational.valueOf(25,1);
-        int offset = 0;
-        for (int i = 0; i < COLUMNS; i++){
-            for (int j = 0; j < ROWS; j++){
-                element = Rational.valueOf(LargeInteger.valueOf(plainText, offset++, 1).minus(65),
-                        LargeInteger.ONE);
-                plainMatrix[j][i] = element;
-                if(element.isNegative() || element.isLargerThan(upperLimit)){
-                    System.out.println("Varning! Endast tecken A till Z är tillåtna");
-                    System.out.println("Information kommer gå förlorad och den dekrypterade ciphertexten");
-                    System.out.println("kommer vara skild från plaintexten.");
-                    System.out.println("Försök igen med tillåtna värden.");
-                    System.out.println();
-                    System.out.println("Kryptering avbruten. programmet avslutas");
-                    System.exit(0);
-
-                }
-            }
+    /**
+     * Översätter texten till symboler på plats. Med policyn strict kontrolleras bara de hela blocken, som
+     * tidigare, och ett ofullständigt sista block tas alltid bort.
+     */
+    private byte[] getCipherTextSymbols(byte[] cipherText, int blockSize, SmsNormalizer normalizer) {
+        final int LENGTH = SmsNormalizer.STRICT.equals(normalizer.getPolicy())
+                ? cipherText.length - cipherText.length % blockSize : cipherText.length;
+        int count = 0;
+        try {
+            count = normalizer.normalize(cipherText, LENGTH, cipherText);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Varning! Endast tecken A till Z är tillåtna");
+            System.out.println("Information kommer gå förlorad och den dekrypterade ciphertexten");
+            System.out.println("kommer vara skild från plaintexten.");
+            System.out.println("Försök igen med tillåtna värden.");
+            System.out.println();
+            System.out.println("Kryptering avbruten. programmet avslutas");
+            System.exit(0);
         }
-        return DenseMatrix.valueOf(plainMatrix);
+        final int SIZE = count - count % blockSize;
+        return SIZE == cipherText.length ? cipherText : Arrays.copyOf(cipherText, SIZE);
     }
 
     private byte[] cipherTextBlockSequence(String fileName){
@@ -218,11 +277,9 @@ public class SmsDecipher {
                 System.out.println("Dekryptering avbruten. programmet avslutas");
                 System.exit(0);
         }
-            plainText = new byte[(int)fis.getChannel().size()];
+            plainText = new byte[FILESIZE];
             DataInputStream input  = new DataInputStream(fis);
-            for(int i = 0; i < plainText.length; i++) {
-                plainText[i] = input.readByte();
-            }
+            input.readFully(plainText);
             System.out.println();
         } catch (FileNotFoundException e) {
             System.out.println("Filen " + fileName + " gick inte att öppna.");
@@ -250,9 +307,14 @@ public class SmsDecipher {
     public static void main(String[] args){
 
         System.out.println("SMSDECIPHER");
+        HillOptions options = new HillOptions(args);
+        args = options.getArguments();
         if(args.length != 5) {
             System.out.println("Fel antal argument.");
             System.out.println("mata in: <radix> <blocksize> <keyfile> <plainfile> <cipherfile>");
+            System.out.println("flaggor: --threads=<n> [--split=<block>] --stats");
+            System.out.println("         --normalize=<strict|strip>");
+            System.out.println("         --kernel=<auto|scalar|table|lanes|gemm|codebook> [--codebook=<block>]");
         } else {
             int radix;
             int blockSize;
@@ -270,7 +332,7 @@ public class SmsDecipher {
                         System.out.println("Enda tillåtna värde på <blocksize> = 3");
                         System.out.println("Kryptering avbruten försök igen");
                     } else {
-                        new SmsDecipher(radix, blockSize, keyFile, plainFile, cipherFile);
+                        new SmsDecipher(radix, blockSize, keyFile, plainFile, cipherFile, options);
                         System.out.println("Kryptering lyckad");
                     }
 
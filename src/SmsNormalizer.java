@@ -0,0 +1,111 @@
+import java.util.Locale;
+
+
+/**
+ * Klassen översätter SMS-text till symboler 0 till 25 i ett enda pass med en uppslagstabell över alla
+ * 256 bytevärden. Vad som händer med tecken utanför A till Z styrs av en policy:
+ *
+ * - strict: bara A till Z är tillåtna, allt annat ger IllegalArgumentException (standard)
+ * - strip: a till z görs om till versaler och alla andra tecken tas bort
+ * - map: a till z görs om till versaler, mellanslag, siffror och skiljetecken ersätts med en fyllnadsbokstav
+ *   och övriga tecken, t.ex. radbrytningar och bytes över 127, tas bort
+ *
+ * Antalet borttagna och ersatta tecken räknas och kan skrivas ut efteråt.
+ */
+public class SmsNormalizer {
+    public static final String STRICT = "strict";
+    public static final String STRIP = "strip";
+    public static final String MAP = "map";
+    public static final char DEFAULT_FILLER = 'X';
+
+    private static final byte DROP = -1;
+    private static final byte INVALID = -2;
+    private static final int MAPPED = 64;
+
+    private final String POLICY;
+    private final byte[] table = new byte[256];
+    private long dropped;
+    private long mapped;
+
+
+    /**
+     *
+     * @param policy strict, strip eller map
+     * @param filler bokstaven A till Z som ersätter andra tecken med policyn map
+     * @throws IllegalArgumentException om policyn eller fyllnadsbokstaven är okänd
+     */
+    public SmsNormalizer(String policy, char filler) {
+        if (!STRICT.equals(policy) && !STRIP.equals(policy) && !MAP.equals(policy)) {
+            throw new IllegalArgumentException("Okänd normalisering: " + policy);
+        }
+        if (filler < 'A' || filler > 'Z') {
+            throw new IllegalArgumentException("Fyllnadsbokstaven måste vara A till Z: " + filler);
+        }
+        this.POLICY = policy;
+        for (int b = 0; b < this.table.length; b++) {
+            if (b >= 'A' && b <= 'Z') {
+                this.table[b] = (byte) (b - 'A');
+            } else if (STRICT.equals(policy)) {
+                this.table[b] = INVALID;
+            } else if (b >= 'a' && b <= 'z') {
+                this.table[b] = (byte) (b - 'a');
+            } else if (MAP.equals(policy) && b >= ' ' && b <= '~') {
+                this.table[b] = (byte) (MAPPED + filler - 'A');
+            } else {
+                this.table[b] = DROP;
+            }
+        }
+    }
+
+
+    /**
+     * Översätter de length första tecknen i text till symboler i symbols. symbols får vara samma array
+     * som text eftersom varje symbol skrivs på samma plats som sitt tecken eller tidigare.
+     *
+     * @return antal skrivna symboler
+     * @throws IllegalArgumentException med policyn strict om ett tecken inte är A till Z
+     */
+    public int normalize(byte[] text, int length, byte[] symbols) {
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            final int SYMBOL = this.table[text[i] & 0xFF];
+            if (SYMBOL >= 0 && SYMBOL < MAPPED) {
+                symbols[count++] = (byte) SYMBOL;
+            } else if (SYMBOL >= MAPPED) {
+                symbols[count++] = (byte) (SYMBOL - MAPPED);
+                this.mapped++;
+            } else if (SYMBOL == DROP) {
+                this.dropped++;
+            } else {
+                throw new IllegalArgumentException("Otillåtet tecken " + (text[i] & 0xFF) + " på position " + i);
+            }
+        }
+        return count;
+    }
+
+
+    public String getPolicy() {
+        return POLICY;
+    }
+
+    /**
+     * @return antal tecken som har tagits bort
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return antal tecken som har ersatts med fyllnadsbokstaven
+     */
+    public long getMapped() {
+        return mapped;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "Normalisering (%s): %d tecken borttagna, %d tecken ersatta",
+                POLICY, dropped, mapped);
+    }
+}